@@ -16,12 +16,13 @@
 package com.phaseshiftlab.sunshine.app;
 
 import android.content.Intent;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.CardView;
@@ -37,7 +38,7 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
-import com.phaseshiftlab.sunshineutilitylib.Utility;
+import com.phaseshiftlab.sunshineutilitylib.data.WeatherConstantsDefinitions;
 import com.phaseshiftlab.sunshineutilitylib.data.WeatherContract;
 import com.phaseshiftlab.sunshineutilitylib.data.WeatherContract.WeatherEntry;
 
@@ -55,38 +56,11 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     private String mForecast;
     private Uri mUri;
     private boolean mTransitionAnimation;
+    // Set while the pane shows a day from ForecastDayCache rather than from its loader
+    private ContentObserver mWeatherObserver;
 
     private static final int DETAIL_LOADER = 0;
 
-    private static final String[] DETAIL_COLUMNS = {
-            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
-            WeatherEntry.COLUMN_DATE,
-            WeatherEntry.COLUMN_SHORT_DESC,
-            WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherEntry.COLUMN_HUMIDITY,
-            WeatherEntry.COLUMN_PRESSURE,
-            WeatherEntry.COLUMN_WIND_SPEED,
-            WeatherEntry.COLUMN_DEGREES,
-            WeatherEntry.COLUMN_WEATHER_ID,
-            // This works because the WeatherProvider returns location data joined with
-            // weather data, even though they're stored in two different tables.
-            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING
-    };
-
-    // These indices are tied to DETAIL_COLUMNS.  If DETAIL_COLUMNS changes, these
-    // must change.
-    public static final int COL_WEATHER_ID = 0;
-    public static final int COL_WEATHER_DATE = 1;
-    public static final int COL_WEATHER_DESC = 2;
-    public static final int COL_WEATHER_MAX_TEMP = 3;
-    public static final int COL_WEATHER_MIN_TEMP = 4;
-    public static final int COL_WEATHER_HUMIDITY = 5;
-    public static final int COL_WEATHER_PRESSURE = 6;
-    public static final int COL_WEATHER_WIND_SPEED = 7;
-    public static final int COL_WEATHER_DEGREES = 8;
-    public static final int COL_WEATHER_CONDITION_ID = 9;
-
     private ImageView mIconView;
     private TextView mDateView;
     private TextView mDescriptionView;
@@ -99,6 +73,15 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     private TextView mPressureView;
     private TextView mPressureLabelView;
 
+    // Content descriptions, only formatted when an accessibility service reads them
+    private LazyContentDescription mIconA11y;
+    private LazyContentDescription mDescriptionA11y;
+    private LazyContentDescription mHighTempA11y;
+    private LazyContentDescription mLowTempA11y;
+    private LazyContentDescription mHumidityA11y;
+    private LazyContentDescription mWindA11y;
+    private LazyContentDescription mPressureA11y;
+
     public DetailFragment() {
         setHasOptionsMenu(true);
     }
@@ -125,6 +108,15 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
         mWindLabelView = (TextView) rootView.findViewById(R.id.detail_wind_label_textview);
         mPressureView = (TextView) rootView.findViewById(R.id.detail_pressure_textview);
         mPressureLabelView = (TextView) rootView.findViewById(R.id.detail_pressure_label_textview);
+
+        mIconA11y = LazyContentDescription.attach(mIconView);
+        mDescriptionA11y = LazyContentDescription.attach(mDescriptionView);
+        mHighTempA11y = LazyContentDescription.attach(mHighTempView);
+        mLowTempA11y = LazyContentDescription.attach(mLowTempView);
+        // The labels read the same as their values
+        mHumidityA11y = LazyContentDescription.attach(mHumidityView, mHumidityLabelView);
+        mWindA11y = LazyContentDescription.attach(mWindView, mWindLabelView);
+        mPressureA11y = LazyContentDescription.attach(mPressureView, mPressureLabelView);
         return rootView;
     }
 
@@ -153,10 +145,20 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
 
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
-        getLoaderManager().initLoader(DETAIL_LOADER, null, this);
+        // A loader kept across a configuration change is already watching for changes, so
+        // only skip it when there is none.
+        if (null != getLoaderManager().getLoader(DETAIL_LOADER) || !bindFromCache()) {
+            getLoaderManager().initLoader(DETAIL_LOADER, null, this);
+        }
         super.onActivityCreated(savedInstanceState);
     }
 
+    @Override
+    public void onDestroyView() {
+        stopWatchingWeather();
+        super.onDestroyView();
+    }
+
     void onLocationChanged( String newLocation ) {
         // replace the uri, since the location has changed
         Uri uri = mUri;
@@ -164,19 +166,61 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
             long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
             Uri updatedUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(newLocation, date);
             mUri = updatedUri;
-            getLoaderManager().restartLoader(DETAIL_LOADER, null, this);
+            if (null != getLoaderManager().getLoader(DETAIL_LOADER)) {
+                getLoaderManager().restartLoader(DETAIL_LOADER, null, this);
+            } else if (!bindFromCache()) {
+                getLoaderManager().initLoader(DETAIL_LOADER, null, this);
+            }
+        }
+    }
+
+    /**
+     * Shows the day straight away if the forecast list has already loaded it, instead of
+     * waiting for the loader.  The loader is started once the weather table changes, so the
+     * pane still updates after a sync.
+     *
+     * @return false if the list doesn't have the day.
+     */
+    private boolean bindFromCache() {
+        if (null == mUri) return false;
+        ForecastListSnapshot.Item day = ForecastDayCache.get(getActivity(), mUri);
+        if (null == day) return false;
+
+        bindDay(day);
+        finishBinding();
+
+        if (null == mWeatherObserver) {
+            mWeatherObserver = new ContentObserver(new Handler()) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    // A change may already be queued when we stop watching
+                    if (mWeatherObserver != this) return;
+                    stopWatchingWeather();
+                    getLoaderManager().initLoader(DETAIL_LOADER, null, DetailFragment.this);
+                }
+            };
+            getActivity().getContentResolver().registerContentObserver(
+                    WeatherEntry.CONTENT_URI, true, mWeatherObserver);
+        }
+        return true;
+    }
+
+    private void stopWatchingWeather() {
+        if (null != mWeatherObserver) {
+            getActivity().getContentResolver().unregisterContentObserver(mWeatherObserver);
+            mWeatherObserver = null;
         }
     }
 
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
         if ( null != mUri ) {
-            // Now create and return a CursorLoader that will take care of
-            // creating a Cursor for the data being displayed.
-            return new CursorLoader(
+            // Now create and return a ForecastLoader that will take care of
+            // creating a Cursor for the data being displayed, and the row to bind from it.
+            return new ForecastLoader(
                     getActivity(),
                     mUri,
-                    DETAIL_COLUMNS,
+                    WeatherConstantsDefinitions.FORECAST_COLUMNS,
                     null,
                     null,
                     null
@@ -192,78 +236,60 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
         if (data != null && data.moveToFirst()) {
-            ViewParent vp = getView().getParent();
-            if ( vp instanceof CardView ) {
-                ((View)vp).setVisibility(View.VISIBLE);
-            }
-
-            // Read weather condition ID from cursor
-            int weatherId = data.getInt(COL_WEATHER_CONDITION_ID);
-
-            if ( Utility.usingLocalGraphics(getActivity()) ) {
-                mIconView.setImageResource(Utility.getArtResourceForWeatherCondition(weatherId));
-            } else {
-                // Use weather art image
-                Glide.with(this)
-                        .load(Utility.getArtUrlForWeatherCondition(getActivity(), weatherId))
-                        .error(Utility.getArtResourceForWeatherCondition(weatherId))
-                        .crossFade()
-                        .into(mIconView);
-            }
+            bindDay(ForecastLoader.getSnapshot(data).get(0));
+        }
+        finishBinding();
+    }
 
-            // Read date from cursor and update views for day of week and date
-            long date = data.getLong(COL_WEATHER_DATE);
-            String dateText = Utility.getFullFriendlyDayString(getActivity(),date);
-            mDateView.setText(dateText);
-
-            // Get description from weather condition ID
-            String description = Utility.getStringForWeatherCondition(getActivity(), weatherId);
-            mDescriptionView.setText(description);
-            mDescriptionView.setContentDescription(getString(R.string.a11y_forecast, description));
-
-            // For accessibility, add a content description to the icon field. Because the ImageView
-            // is independently focusable, it's better to have a description of the image. Using
-            // null is appropriate when the image is purely decorative or when the image already
-            // has text describing it in the same UI component.
-            mIconView.setContentDescription(getString(R.string.a11y_forecast_icon, description));
-
-            // Read high temperature from cursor and update view
-            boolean isMetric = Utility.isMetric(getActivity());
-
-            double high = data.getDouble(COL_WEATHER_MAX_TEMP);
-            String highString = Utility.formatTemperature(getActivity(), high);
-            mHighTempView.setText(highString);
-            mHighTempView.setContentDescription(getString(R.string.a11y_high_temp, highString));
-
-            // Read low temperature from cursor and update view
-            double low = data.getDouble(COL_WEATHER_MIN_TEMP);
-            String lowString = Utility.formatTemperature(getActivity(), low);
-            mLowTempView.setText(lowString);
-            mLowTempView.setContentDescription(getString(R.string.a11y_low_temp, lowString));
-
-            // Read humidity from cursor and update view
-            float humidity = data.getFloat(COL_WEATHER_HUMIDITY);
-            mHumidityView.setText(getActivity().getString(R.string.format_humidity, humidity));
-            mHumidityView.setContentDescription(getString(R.string.a11y_humidity, mHumidityView.getText()));
-            mHumidityLabelView.setContentDescription(mHumidityView.getContentDescription());
-
-            // Read wind speed and direction from cursor and update view
-            float windSpeedStr = data.getFloat(COL_WEATHER_WIND_SPEED);
-            float windDirStr = data.getFloat(COL_WEATHER_DEGREES);
-            mWindView.setText(Utility.getFormattedWind(getActivity(), windSpeedStr, windDirStr));
-            mWindView.setContentDescription(getString(R.string.a11y_wind, mWindView.getText()));
-            mWindLabelView.setContentDescription(mWindView.getContentDescription());
-
-            // Read pressure from cursor and update view
-            float pressure = data.getFloat(COL_WEATHER_PRESSURE);
-            mPressureView.setText(getString(R.string.format_pressure, pressure));
-            mPressureView.setContentDescription(getString(R.string.a11y_pressure, mPressureView.getText()));
-            mPressureLabelView.setContentDescription(mPressureView.getContentDescription());
-
-            // We still need this for the share intent
-            mForecast = String.format("%s - %s - %s/%s", dateText, description, high, low);
+    private void bindDay(ForecastListSnapshot.Item day) {
+        ViewParent vp = getView().getParent();
+        if ( vp instanceof CardView ) {
+            ((View)vp).setVisibility(View.VISIBLE);
+        }
 
+        if ( null == day.artUrl ) {
+            mIconView.setImageResource(day.artResource);
+        } else {
+            // Use weather art image
+            Glide.with(this)
+                    .load(day.artUrl)
+                    .error(day.artResource)
+                    .crossFade()
+                    .into(mIconView);
         }
+
+        mDateView.setText(day.fullDateText);
+
+        mDescriptionView.setText(day.description);
+        mDescriptionA11y.set(R.string.a11y_forecast, day.description);
+
+        // For accessibility, add a content description to the icon field. Because the ImageView
+        // is independently focusable, it's better to have a description of the image. Using
+        // null is appropriate when the image is purely decorative or when the image already
+        // has text describing it in the same UI component.
+        mIconA11y.set(R.string.a11y_forecast_icon, day.description);
+
+        mHighTempView.setText(day.high);
+        mHighTempA11y.set(R.string.a11y_high_temp, day.high);
+
+        mLowTempView.setText(day.low);
+        mLowTempA11y.set(R.string.a11y_low_temp, day.low);
+
+        mHumidityView.setText(day.humidity);
+        mHumidityA11y.set(R.string.a11y_humidity, day.humidity);
+
+        mWindView.setText(day.wind);
+        mWindA11y.set(R.string.a11y_wind, day.wind);
+
+        mPressureView.setText(day.pressure);
+        mPressureA11y.set(R.string.a11y_pressure, day.pressure);
+
+        // We still need this for the share intent
+        mForecast = String.format("%s - %s - %s/%s",
+                day.fullDateText, day.description, day.maxTemp, day.minTemp);
+    }
+
+    private void finishBinding() {
         AppCompatActivity activity = (AppCompatActivity)getActivity();
         Toolbar toolbarView = (Toolbar) getView().findViewById(R.id.toolbar);
 
@@ -289,4 +315,4 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) { }
-}
\ No newline at end of file
+}
@@ -27,13 +27,15 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
-import com.phaseshiftlab.sunshineutilitylib.Utility;
-import com.phaseshiftlab.sunshineutilitylib.data.WeatherConstantsDefinitions;
-import com.phaseshiftlab.sunshineutilitylib.data.WeatherContract;
+import com.bumptech.glide.load.resource.drawable.GlideDrawable;
+import com.bumptech.glide.request.RequestListener;
+import com.bumptech.glide.request.target.Target;
 
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
  * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
+ * The rows themselves come from the {@link ForecastListSnapshot} that {@link ForecastLoader}
+ * builds alongside the cursor.
  */
 public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
 
@@ -44,6 +46,7 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     private boolean mUseTodayLayout = true;
 
     private Cursor mCursor;
+    private ForecastListSnapshot mSnapshot = ForecastListSnapshot.EMPTY;
     final private Context mContext;
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
@@ -58,6 +61,31 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         public final TextView mDescriptionView;
         public final TextView mHighTempView;
         public final TextView mLowTempView;
+        final LazyContentDescription mDescriptionA11y;
+        final LazyContentDescription mHighTempA11y;
+        final LazyContentDescription mLowTempA11y;
+
+        // When the current art image load was started, for ForecastListStats
+        long mImageStartNanos;
+        final RequestListener<String, GlideDrawable> mImageListener =
+                new RequestListener<String, GlideDrawable>() {
+                    @Override
+                    public boolean onException(Exception e, String model,
+                                               Target<GlideDrawable> target,
+                                               boolean isFirstResource) {
+                        ForecastListStats.get().recordImageFailure();
+                        return false;
+                    }
+
+                    @Override
+                    public boolean onResourceReady(GlideDrawable resource, String model,
+                                                   Target<GlideDrawable> target,
+                                                   boolean isFromMemoryCache,
+                                                   boolean isFirstResource) {
+                        ForecastListStats.get().recordImage(isFromMemoryCache, mImageStartNanos);
+                        return false;
+                    }
+                };
 
         public ForecastAdapterViewHolder(View view) {
             super(view);
@@ -66,15 +94,18 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
             mDescriptionView = (TextView) view.findViewById(R.id.list_item_forecast_textview);
             mHighTempView = (TextView) view.findViewById(R.id.list_item_high_textview);
             mLowTempView = (TextView) view.findViewById(R.id.list_item_low_textview);
+            mDescriptionA11y = LazyContentDescription.attach(mDescriptionView);
+            mHighTempA11y = LazyContentDescription.attach(mHighTempView);
+            mLowTempA11y = LazyContentDescription.attach(mLowTempView);
             view.setOnClickListener(this);
         }
 
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-            mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
+            // Removed rows can still be on screen while they animate out
+            if (adapterPosition == RecyclerView.NO_POSITION) return;
+            mClickHandler.onClick(mSnapshot.get(adapterPosition).date, this);
             mICM.onClick(this);
         }
     }
@@ -123,65 +154,59 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-        int weatherId = mCursor.getInt(WeatherConstantsDefinitions.COL_WEATHER_CONDITION_ID);
+        // Everything shown here was built on the loader thread by ForecastListSnapshot, so
+        // binding is just assigning fields.
+        long startNanos = System.nanoTime();
+        ForecastListSnapshot.Item item = mSnapshot.get(position);
+        int viewType = getItemViewType(position);
         int defaultImage;
-        boolean useLongToday;
+        String dateText;
 
-        switch (getItemViewType(position)) {
+        switch (viewType) {
             case VIEW_TYPE_TODAY:
-                defaultImage = Utility.getArtResourceForWeatherCondition(weatherId);
-                useLongToday = true;
+                defaultImage = item.artResource;
+                dateText = item.todayDateText;
                 break;
             default:
-                defaultImage = Utility.getIconResourceForWeatherCondition(weatherId);
-                useLongToday = false;
+                defaultImage = item.iconResource;
+                dateText = item.dateText;
         }
 
-        if ( Utility.usingLocalGraphics(mContext) ) {
+        if ( null == item.artUrl ) {
             forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
         } else {
+            forecastAdapterViewHolder.mImageStartNanos = System.nanoTime();
             Glide.with(mContext)
-                    .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
+                    .load(item.artUrl)
                     .error(defaultImage)
                     .crossFade()
+                    .listener(forecastAdapterViewHolder.mImageListener)
                     .into(forecastAdapterViewHolder.mIconView);
         }
 
         // this enables better animations. even if we lose state due to a device rotation,
-        // the animator can use this to re-find the original view
-        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + position);
+        // the animator can use this to re-find the original view.  Rows that only shift
+        // position aren't rebound, so the name goes by date rather than by position.
+        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + item.date);
 
-        // Read date from cursor
-        long dateInMillis = mCursor.getLong(WeatherConstantsDefinitions.COL_WEATHER_DATE);
+        forecastAdapterViewHolder.mDateView.setText(dateText);
 
-        // Find TextView and set formatted date on it
-        forecastAdapterViewHolder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
-
-        // Read weather forecast from cursor
-        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
-
-        // Find TextView and set weather forecast on it
-        forecastAdapterViewHolder.mDescriptionView.setText(description);
-        forecastAdapterViewHolder.mDescriptionView.setContentDescription(mContext.getString(R.string.a11y_forecast, description));
+        forecastAdapterViewHolder.mDescriptionView.setText(item.description);
+        forecastAdapterViewHolder.mDescriptionA11y.set(R.string.a11y_forecast, item.description);
 
         // For accessibility, we don't want a content description for the icon field
         // because the information is repeated in the description view and the icon
         // is not individually selectable
 
-        // Read high temperature from cursor
-        double high = mCursor.getDouble(WeatherConstantsDefinitions.COL_WEATHER_MAX_TEMP);
-        String highString = Utility.formatTemperature(mContext, high);
-        forecastAdapterViewHolder.mHighTempView.setText(highString);
-        forecastAdapterViewHolder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, highString));
+        forecastAdapterViewHolder.mHighTempView.setText(item.high);
+        forecastAdapterViewHolder.mHighTempA11y.set(R.string.a11y_high_temp, item.high);
 
-        // Read low temperature from cursor
-        double low = mCursor.getDouble(WeatherConstantsDefinitions.COL_WEATHER_MIN_TEMP);
-        String lowString = Utility.formatTemperature(mContext, low);
-        forecastAdapterViewHolder.mLowTempView.setText(lowString);
-        forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
+        forecastAdapterViewHolder.mLowTempView.setText(item.low);
+        forecastAdapterViewHolder.mLowTempA11y.set(R.string.a11y_low_temp, item.low);
 
         mICM.onBindViewHolder(forecastAdapterViewHolder, position);
+
+        ForecastListStats.get().recordBind(viewType == VIEW_TYPE_TODAY, startNanos);
     }
 
     public void onRestoreInstanceState(Bundle savedInstanceState) {
@@ -207,13 +232,37 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public int getItemCount() {
-        if ( null == mCursor ) return 0;
-        return mCursor.getCount();
+        return mSnapshot.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mSnapshot.get(position).id;
+    }
+
+    /**
+     * @return the position of the row for a normalized date, or
+     * {@link RecyclerView#NO_POSITION} if there is none.
+     */
+    public int getPositionForDate(long date) {
+        return mSnapshot.getPositionForDate(date);
     }
 
     public void swapCursor(Cursor newCursor) {
+        ForecastListSnapshot oldSnapshot = mSnapshot;
+        ForecastListDiff diff = ForecastLoader.getDiff(newCursor);
         mCursor = newCursor;
-        notifyDataSetChanged();
+        mSnapshot = ForecastLoader.getSnapshot(newCursor);
+        if (null != diff && diff.getFrom() == oldSnapshot) {
+            // Only rows that were added, removed or now look different get touched
+            diff.dispatchUpdatesTo(this);
+        } else {
+            notifyDataSetChanged();
+        }
+        // Clearing the list isn't a reason to forget the selection
+        if (null != newCursor) {
+            mICM.confirmCheckedPositionsById(mSnapshot);
+        }
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phaseshiftlab.sunshine.app;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.support.v4.util.LongSparseArray;
+
+import com.phaseshiftlab.sunshineutilitylib.data.WeatherContract;
+import com.phaseshiftlab.sunshineutilitylib.data.WeatherContract.WeatherEntry;
+
+/**
+ * The rows the forecast list loaded last, by location and day, so that {@link DetailFragment}
+ * can show a day the list already has without querying the provider again.
+ *
+ * The rows are dropped whenever the weather table changes, and replaced when the list reloads.
+ * They aren't returned once the locale or the day has changed, as their labels are stale.
+ */
+public final class ForecastDayCache {
+
+    private static final Object sLock = new Object();
+    private static volatile Days sDays;
+
+    // Registered once, on the application context, and kept for the life of the process
+    private static ContentObserver sObserver;
+
+    private static final class Days {
+        final ForecastListSnapshot mSnapshot;
+        final String mLocationSetting;
+        final LongSparseArray<ForecastListSnapshot.Item> mItems;
+
+        Days(ForecastListSnapshot snapshot, String locationSetting,
+             LongSparseArray<ForecastListSnapshot.Item> items) {
+            mSnapshot = snapshot;
+            mLocationSetting = locationSetting;
+            mItems = items;
+        }
+    }
+
+    private ForecastDayCache() {
+    }
+
+    /**
+     * Replaces the cached rows with those of a snapshot the forecast list just loaded.
+     */
+    public static void put(Context context, ForecastListSnapshot snapshot) {
+        if (snapshot.size() == 0) {
+            invalidate();
+            return;
+        }
+        // The list is loaded for a single location
+        String locationSetting = snapshot.get(0).locationSetting;
+        LongSparseArray<ForecastListSnapshot.Item> items = new LongSparseArray<ForecastListSnapshot.Item>(snapshot.size());
+        for (ForecastListSnapshot.Item item : snapshot.getItems()) {
+            items.put(WeatherContract.normalizeDate(item.date), item);
+        }
+
+        synchronized (sLock) {
+            if (sObserver == null) {
+                sObserver = new ContentObserver(null) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        invalidate();
+                    }
+                };
+                context.getApplicationContext().getContentResolver()
+                        .registerContentObserver(WeatherEntry.CONTENT_URI, true, sObserver);
+            }
+            sDays = new Days(snapshot, locationSetting, items);
+        }
+    }
+
+    /**
+     * @param weatherUri a {@link WeatherEntry#buildWeatherLocationWithDate(String, long)} uri
+     * @return the cached row for the uri's location and day, or null if there is none or its
+     * labels are out of date.
+     */
+    public static ForecastListSnapshot.Item get(Context context, Uri weatherUri) {
+        Days days = sDays;
+        if (days == null || !days.mSnapshot.isCurrent(context)) return null;
+        if (!days.mLocationSetting.equals(WeatherEntry.getLocationSettingFromUri(weatherUri))) {
+            return null;
+        }
+        return days.mItems.get(WeatherEntry.getDateFromUri(weatherUri));
+    }
+
+    /**
+     * Drops the cached rows.
+     */
+    public static void invalidate() {
+        synchronized (sLock) {
+            sDays = null;
+        }
+    }
+}
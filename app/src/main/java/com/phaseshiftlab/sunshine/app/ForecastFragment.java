@@ -17,7 +17,10 @@ package com.phaseshiftlab.sunshine.app;
 
 import android.annotation.TargetApi;
 import android.app.Activity;
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.res.TypedArray;
 import android.database.Cursor;
@@ -28,7 +31,6 @@ import android.preference.PreferenceManager;
 import android.support.design.widget.AppBarLayout;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.LinearLayoutManager;
@@ -46,6 +48,7 @@ import android.widget.AbsListView;
 import android.widget.TextView;
 
 import com.phaseshiftlab.sunshine.app.sync.SunshineWearableUpdater;
+import com.phaseshiftlab.sunshineutilitylib.DayLabels;
 import com.phaseshiftlab.sunshineutilitylib.Utility;
 import com.phaseshiftlab.sunshineutilitylib.data.WeatherConstantsDefinitions;
 import com.phaseshiftlab.sunshineutilitylib.data.WeatherContract;
@@ -63,6 +66,18 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     private boolean mHoldForTransition;
     private long mInitialSelectedDate = -1;
 
+    // Relabels the rows when the day, time zone or locale changes while the list is showing
+    private final BroadcastReceiver mDateChangedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (!Intent.ACTION_DATE_CHANGED.equals(intent.getAction())) {
+                // Don't wait for the cached time zone and labels to expire
+                DayLabels.invalidate();
+            }
+            reloadIfStale();
+        }
+    };
+
     private static final String SELECTED_KEY = "selected_position";
 
     private static final int FORECAST_LOADER = 0;
@@ -93,6 +108,11 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     public void onResume() {
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(getActivity());
         sp.registerOnSharedPreferenceChangeListener(this);
+        IntentFilter filter = new IntentFilter(Intent.ACTION_DATE_CHANGED);
+        filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+        getActivity().registerReceiver(mDateChangedReceiver, filter);
+        reloadIfStale();
         super.onResume();
     }
 
@@ -100,9 +120,26 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     public void onPause() {
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(getActivity());
         sp.unregisterOnSharedPreferenceChangeListener(this);
+        getActivity().unregisterReceiver(mDateChangedReceiver);
         super.onPause();
     }
 
+    /**
+     * The rows hold labels formatted for the locale and the day they were loaded on, and the
+     * loader outlives configuration changes, so after a language change or midnight it would
+     * keep delivering them as they were.  Reloads the rows in that case.
+     */
+    private void reloadIfStale() {
+        Loader<Cursor> loader = getLoaderManager().getLoader(FORECAST_LOADER);
+        if (null == loader
+                || ForecastLoader.getSnapshot(mForecastAdapter.getCursor()).isCurrent(getActivity())) {
+            return;
+        }
+        // Same loader, so the list animates yesterday going away rather than starting over
+        ((ForecastLoader) loader).setUri(buildWeatherForLocationUri());
+        loader.onContentChanged();
+    }
+
     @Override
     public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
         inflater.inflate(R.menu.forecastfragment, menu);
@@ -172,6 +209,9 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // specify an adapter (see also next example)
         mRecyclerView.setAdapter(mForecastAdapter);
 
+        // Times the frames drawn while scrolling, see ForecastListStatsActivity
+        mRecyclerView.addOnScrollListener(new ForecastListStats.ScrollFrameMonitor(getActivity()));
+
         final View parallaxView = rootView.findViewById(R.id.parallax_bar);
         if (null != parallaxView) {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
@@ -284,22 +324,26 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // Sort order:  Ascending, by date.
         String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
 
-        String locationSetting = Utility.getPreferredLocation(getActivity());
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                locationSetting, System.currentTimeMillis());
-
-        return new CursorLoader(getActivity(),
-                weatherForLocationUri,
+        return new ForecastLoader(getActivity(),
+                buildWeatherForLocationUri(),
                 WeatherConstantsDefinitions.FORECAST_COLUMNS,
                 null,
                 null,
                 sortOrder);
     }
 
+    private Uri buildWeatherForLocationUri() {
+        String locationSetting = Utility.getPreferredLocation(getActivity());
+        return WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, System.currentTimeMillis());
+    }
+
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
         SunshineWearableUpdater.update(data, getActivity());
 
+        // Before the adapter, since restoring the selection may open the detail pane
+        ForecastDayCache.put(getActivity(), ForecastLoader.getSnapshot(data));
         mForecastAdapter.swapCursor(data);
         updateEmptyView();
         if ( data.getCount() == 0 ) {
@@ -315,16 +359,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                         int position = mForecastAdapter.getSelectedItemPosition();
                         if (position == RecyclerView.NO_POSITION &&
                                 -1 != mInitialSelectedDate) {
-                            Cursor data = mForecastAdapter.getCursor();
-                            int count = data.getCount();
-                            int dateColumn = data.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-                            for ( int i = 0; i < count; i++ ) {
-                                data.moveToPosition(i);
-                                if ( data.getLong(dateColumn) == mInitialSelectedDate ) {
-                                    position = i;
-                                    break;
-                                }
-                            }
+                            position = mForecastAdapter.getPositionForDate(mInitialSelectedDate);
                         }
                         if (position == RecyclerView.NO_POSITION) position = 0;
                         // If we don't need to restart the loader, and there's a desired position to restore
@@ -358,6 +393,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
+        ForecastDayCache.invalidate();
         mForecastAdapter.swapCursor(null);
     }
 
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phaseshiftlab.sunshine.app;
+
+import android.support.v7.widget.RecyclerView;
+
+/**
+ * The changes between two {@link ForecastListSnapshot}s, as RecyclerView adapter events.
+ *
+ * Rows are matched by location and date.  Both snapshots are sorted by date, so a single merge
+ * walk finds every insert, remove and change; a row can't move relative to the others without
+ * its date changing, so there are never any moves to report.
+ */
+public final class ForecastListDiff {
+
+    private static final int OP_INSERT = 0;
+    private static final int OP_REMOVE = 1;
+    private static final int OP_CHANGE = 2;
+
+    private final ForecastListSnapshot mFrom;
+    private final ForecastListSnapshot mTo;
+
+    // Runs of (op, position, count), with positions in the list as it stands after the
+    // runs before them have been applied.
+    private final int[] mOps;
+    private final int mOpCount;
+
+    private ForecastListDiff(ForecastListSnapshot from, ForecastListSnapshot to,
+                             int[] ops, int opCount) {
+        mFrom = from;
+        mTo = to;
+        mOps = ops;
+        mOpCount = opCount;
+    }
+
+    /**
+     * Works out the changes from one snapshot to the next.  This walks both snapshots, so call
+     * it off the main thread.
+     */
+    public static ForecastListDiff compute(ForecastListSnapshot from, ForecastListSnapshot to) {
+        int oldSize = from.size();
+        int newSize = to.size();
+        // At worst every old row is removed and every new row is inserted
+        int[] ops = new int[3 * (oldSize + newSize)];
+        int opCount = 0;
+
+        int oldPosition = 0;
+        int newPosition = 0;
+        while (oldPosition < oldSize || newPosition < newSize) {
+            boolean remove;
+            if (oldPosition < oldSize && newPosition < newSize) {
+                ForecastListSnapshot.Item oldItem = from.get(oldPosition);
+                ForecastListSnapshot.Item newItem = to.get(newPosition);
+                int order = compareKeys(oldItem, newItem);
+                if (order == 0) {
+                    if (!oldItem.sameContentAs(newItem)) {
+                        opCount = addOp(ops, opCount, OP_CHANGE, newPosition);
+                    }
+                    oldPosition++;
+                    newPosition++;
+                    continue;
+                }
+                remove = order < 0;
+            } else {
+                remove = oldPosition < oldSize;
+            }
+
+            // Everything before newPosition is already in its new state, so that is where the
+            // row being removed or inserted sits
+            if (remove) {
+                opCount = addOp(ops, opCount, OP_REMOVE, newPosition);
+                oldPosition++;
+            } else {
+                opCount = addOp(ops, opCount, OP_INSERT, newPosition);
+                newPosition++;
+            }
+        }
+        return new ForecastListDiff(from, to, ops, opCount);
+    }
+
+    private static int compareKeys(ForecastListSnapshot.Item a, ForecastListSnapshot.Item b) {
+        int order = compare(a.locationSetting, b.locationSetting);
+        if (order != 0) return order;
+        return a.date < b.date ? -1 : (a.date == b.date ? 0 : 1);
+    }
+
+    private static int compare(String a, String b) {
+        if (a == null) return b == null ? 0 : -1;
+        if (b == null) return 1;
+        return a.compareTo(b);
+    }
+
+    // Adds an op for one row, folding it into the previous run where it continues it
+    private static int addOp(int[] ops, int opCount, int op, int position) {
+        if (opCount > 0) {
+            int last = 3 * (opCount - 1);
+            if (ops[last] == op) {
+                int start = ops[last + 1];
+                int count = ops[last + 2];
+                // Inserts and changes advance through the list, removes stay in place
+                int next = op == OP_REMOVE ? start : start + count;
+                if (position == next) {
+                    ops[last + 2] = count + 1;
+                    return opCount;
+                }
+            }
+        }
+        int i = 3 * opCount;
+        ops[i] = op;
+        ops[i + 1] = position;
+        ops[i + 2] = 1;
+        return opCount + 1;
+    }
+
+    public ForecastListSnapshot getFrom() {
+        return mFrom;
+    }
+
+    public ForecastListSnapshot getTo() {
+        return mTo;
+    }
+
+    public boolean isEmpty() {
+        return mOpCount == 0;
+    }
+
+    /**
+     * Receives the changes, in the order they have to be applied.
+     */
+    interface Callback {
+        void onInserted(int position, int count);
+
+        void onRemoved(int position, int count);
+
+        void onChanged(int position, int count);
+    }
+
+    /**
+     * Sends the changes to an adapter that is showing {@link #getFrom()} and has just switched
+     * to {@link #getTo()}.
+     */
+    public void dispatchUpdatesTo(final RecyclerView.Adapter adapter) {
+        dispatchUpdatesTo(new Callback() {
+            @Override
+            public void onInserted(int position, int count) {
+                adapter.notifyItemRangeInserted(position, count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                adapter.notifyItemRangeRemoved(position, count);
+            }
+
+            @Override
+            public void onChanged(int position, int count) {
+                adapter.notifyItemRangeChanged(position, count);
+            }
+        });
+    }
+
+    void dispatchUpdatesTo(Callback callback) {
+        for (int i = 0; i < mOpCount; i++) {
+            int op = mOps[3 * i];
+            int position = mOps[3 * i + 1];
+            int count = mOps[3 * i + 2];
+            switch (op) {
+                case OP_INSERT:
+                    callback.onInserted(position, count);
+                    break;
+                case OP_REMOVE:
+                    callback.onRemoved(position, count);
+                    break;
+                case OP_CHANGE:
+                    callback.onChanged(position, count);
+                    break;
+            }
+        }
+    }
+}
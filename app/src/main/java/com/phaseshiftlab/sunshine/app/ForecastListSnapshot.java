@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phaseshiftlab.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.v4.util.LongSparseArray;
+import android.support.v7.widget.RecyclerView;
+
+import com.phaseshiftlab.sunshineutilitylib.JulianDays;
+import com.phaseshiftlab.sunshineutilitylib.Utility;
+import com.phaseshiftlab.sunshineutilitylib.WeatherFormatter;
+import com.phaseshiftlab.sunshineutilitylib.data.WeatherConstantsDefinitions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * An immutable, display ready copy of the forecast list.  It is built on the loader thread,
+ * so that {@link ForecastAdapter} only has to assign fields when it binds a row.
+ *
+ * The labels are formatted for the locale and the day the snapshot was built on; see
+ * {@link #isCurrent(Context)}.
+ */
+public final class ForecastListSnapshot implements ItemChoiceManager.PositionLookup {
+
+    public static final ForecastListSnapshot EMPTY =
+            new ForecastListSnapshot(Collections.<Item>emptyList(), null, 0);
+
+    /**
+     * One forecast row, with every string and resource the list item layouts and the
+     * {@link DetailFragment} need.
+     */
+    public static final class Item {
+        public final long id;
+        public final long date;
+        public final String locationSetting;
+        public final int weatherId;
+
+        // The "today" layout uses the art and the long form of the date, the others the icon
+        // and the short form.
+        public final int iconResource;
+        public final int artResource;
+        // null when using local graphics
+        public final String artUrl;
+        public final String dateText;
+        public final String todayDateText;
+
+        // The content descriptions are left to LazyContentDescription
+        public final String description;
+        public final String high;
+        public final String low;
+
+        // Only shown by the detail pane
+        public final String fullDateText;
+        public final double maxTemp;
+        public final double minTemp;
+        public final String humidity;
+        public final String wind;
+        public final String pressure;
+
+        Item(long id, long date, String locationSetting, int weatherId,
+             int iconResource, int artResource, String artUrl,
+             String dateText, String todayDateText,
+             String description, String high, String low,
+             String fullDateText, double maxTemp, double minTemp,
+             String humidity, String wind, String pressure) {
+            this.id = id;
+            this.date = date;
+            this.locationSetting = locationSetting;
+            this.weatherId = weatherId;
+            this.iconResource = iconResource;
+            this.artResource = artResource;
+            this.artUrl = artUrl;
+            this.dateText = dateText;
+            this.todayDateText = todayDateText;
+            this.description = description;
+            this.high = high;
+            this.low = low;
+            this.fullDateText = fullDateText;
+            this.maxTemp = maxTemp;
+            this.minTemp = minTemp;
+            this.humidity = humidity;
+            this.wind = wind;
+            this.pressure = pressure;
+        }
+
+        /**
+         * @return true if binding other would show exactly what binding this row shows in the
+         * list.  The detail fields aren't compared.
+         */
+        public boolean sameContentAs(Item other) {
+            return date == other.date
+                    && iconResource == other.iconResource
+                    && artResource == other.artResource
+                    && equals(artUrl, other.artUrl)
+                    && equals(dateText, other.dateText)
+                    && equals(todayDateText, other.todayDateText)
+                    && equals(description, other.description)
+                    && equals(high, other.high)
+                    && equals(low, other.low);
+        }
+
+        private static boolean equals(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    private final List<Item> mItems;
+    // Built with the rows, so finding a row never walks the list or moves a cursor
+    private final LongSparseArray<Integer> mPositionsByDate;
+    private final LongSparseArray<Integer> mPositionsById;
+    // What "today", "tomorrow" and the descriptions were formatted for; null if nothing was
+    private final Locale mLocale;
+    private final int mJulianDay;
+
+    private ForecastListSnapshot(List<Item> items, Locale locale, int julianDay) {
+        mItems = Collections.unmodifiableList(items);
+        mLocale = locale;
+        mJulianDay = julianDay;
+        int count = items.size();
+        mPositionsByDate = new LongSparseArray<Integer>(count);
+        mPositionsById = new LongSparseArray<Integer>(count);
+        for (int i = 0; i < count; i++) {
+            Item item = items.get(i);
+            mPositionsByDate.put(item.date, i);
+            mPositionsById.put(item.id, i);
+        }
+    }
+
+    /**
+     * Builds the rows for every position of a cursor over
+     * {@link WeatherConstantsDefinitions#FORECAST_COLUMNS}.  This reads preferences and
+     * resources, so call it off the main thread.
+     */
+    public static ForecastListSnapshot build(Context context, Cursor cursor) {
+        int count = cursor.getCount();
+        if (count == 0) return EMPTY;
+
+        Locale locale = context.getResources().getConfiguration().locale;
+        int julianDay = JulianDays.getCurrentJulianDay();
+        // These don't change from row to row, so read them once rather than once per bind
+        boolean useLocalGraphics = Utility.usingLocalGraphics(context);
+        WeatherFormatter formatter = WeatherFormatter.get(context);
+
+        List<Item> items = new ArrayList<Item>(count);
+        for (int i = 0; i < count; i++) {
+            cursor.moveToPosition(i);
+            int weatherId = cursor.getInt(WeatherConstantsDefinitions.COL_WEATHER_CONDITION_ID);
+            long date = cursor.getLong(WeatherConstantsDefinitions.COL_WEATHER_DATE);
+            double maxTemp = cursor.getDouble(WeatherConstantsDefinitions.COL_WEATHER_MAX_TEMP);
+            double minTemp = cursor.getDouble(WeatherConstantsDefinitions.COL_WEATHER_MIN_TEMP);
+
+            items.add(new Item(
+                    cursor.getLong(WeatherConstantsDefinitions.COL_WEATHER_ID),
+                    date,
+                    cursor.getString(WeatherConstantsDefinitions.COL_LOCATION_SETTING),
+                    weatherId,
+                    Utility.getIconResourceForWeatherCondition(weatherId),
+                    Utility.getArtResourceForWeatherCondition(weatherId),
+                    useLocalGraphics ? null : Utility.getArtUrlForWeatherCondition(context, weatherId),
+                    Utility.getFriendlyDayString(context, date, false),
+                    Utility.getFriendlyDayString(context, date, true),
+                    Utility.getStringForWeatherCondition(context, weatherId),
+                    Utility.formatTemperature(context, maxTemp),
+                    Utility.formatTemperature(context, minTemp),
+                    Utility.getFullFriendlyDayString(context, date),
+                    maxTemp,
+                    minTemp,
+                    formatter.formatHumidity(
+                            cursor.getFloat(WeatherConstantsDefinitions.COL_WEATHER_HUMIDITY)),
+                    Utility.getFormattedWind(context,
+                            cursor.getFloat(WeatherConstantsDefinitions.COL_WEATHER_WIND_SPEED),
+                            cursor.getFloat(WeatherConstantsDefinitions.COL_WEATHER_DEGREES)),
+                    formatter.formatPressure(
+                            cursor.getFloat(WeatherConstantsDefinitions.COL_WEATHER_PRESSURE))));
+        }
+        return new ForecastListSnapshot(items, locale, julianDay);
+    }
+
+    /**
+     * @return false if the locale or the day has changed since the snapshot was built, so its
+     * labels need formatting again.
+     */
+    public boolean isCurrent(Context context) {
+        return null == mLocale
+                || (mJulianDay == JulianDays.getCurrentJulianDay()
+                && mLocale.equals(context.getResources().getConfiguration().locale));
+    }
+
+    /**
+     * Wraps rows that are already built, sorted by date.  For tests.
+     */
+    static ForecastListSnapshot of(List<Item> items) {
+        return new ForecastListSnapshot(new ArrayList<Item>(items), null, 0);
+    }
+
+    public int size() {
+        return mItems.size();
+    }
+
+    public Item get(int position) {
+        return mItems.get(position);
+    }
+
+    public List<Item> getItems() {
+        return mItems;
+    }
+
+    /**
+     * @return the position of the row for a normalized date, or
+     * {@link RecyclerView#NO_POSITION} if there is none.
+     */
+    public int getPositionForDate(long date) {
+        return mPositionsByDate.get(date, RecyclerView.NO_POSITION);
+    }
+
+    /**
+     * @return the position of the row with a weather row ID, or
+     * {@link RecyclerView#NO_POSITION} if there is none.
+     */
+    @Override
+    public int getPositionForId(long id) {
+        return mPositionsById.get(id, RecyclerView.NO_POSITION);
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phaseshiftlab.sunshine.app;
+
+import android.content.Context;
+import android.support.v4.view.ViewCompat;
+import android.support.v7.widget.RecyclerView;
+import android.view.Choreographer;
+import android.view.WindowManager;
+
+import com.phaseshiftlab.sunshineutilitylib.Histogram;
+
+import java.io.PrintWriter;
+
+/**
+ * Histograms of how the forecast list renders: the time between frames while it scrolls, how
+ * long {@link ForecastAdapter} takes to bind each view type, and how long the art images take
+ * to arrive.  {@link ForecastListStatsActivity} shows them and writes them to a file.
+ *
+ * Only touch this from the main thread.
+ */
+public final class ForecastListStats {
+
+    // A frame is janky when it took long enough to miss at least one vsync
+    private static final float JANK_FRAME_RATIO = 1.5f;
+
+    private static final ForecastListStats sInstance = new ForecastListStats();
+
+    private long mStartMillis;
+    private Histogram mFrames;
+    private long mJankyFrames;
+    private long mDroppedFrames;
+    private Histogram mBindToday;
+    private Histogram mBindFutureDay;
+    private Histogram mImageLoads;
+    private Histogram mImageMemoryHits;
+    private long mImageFailures;
+
+    private ForecastListStats() {
+        reset();
+    }
+
+    public static ForecastListStats get() {
+        return sInstance;
+    }
+
+    /**
+     * Records the time between two frames drawn while the list scrolled, given the display's
+     * vsync period.
+     */
+    void recordFrame(long intervalNanos, long frameIntervalNanos) {
+        mFrames.add(intervalNanos / 1000);
+        if (intervalNanos > frameIntervalNanos * JANK_FRAME_RATIO) {
+            mJankyFrames++;
+            mDroppedFrames += (intervalNanos + frameIntervalNanos / 2) / frameIntervalNanos - 1;
+        }
+    }
+
+    /**
+     * Records the time since {@code startNanos} (from {@link System#nanoTime()}) as one bind.
+     */
+    void recordBind(boolean today, long startNanos) {
+        (today ? mBindToday : mBindFutureDay).add((System.nanoTime() - startNanos) / 1000);
+    }
+
+    /**
+     * Records the time since {@code startNanos} as one art image load that succeeded.
+     */
+    void recordImage(boolean fromMemoryCache, long startNanos) {
+        (fromMemoryCache ? mImageMemoryHits : mImageLoads)
+                .add((System.nanoTime() - startNanos) / 1000);
+    }
+
+    void recordImageFailure() {
+        mImageFailures++;
+    }
+
+    public void reset() {
+        mStartMillis = System.currentTimeMillis();
+        mFrames = new Histogram();
+        mJankyFrames = 0;
+        mDroppedFrames = 0;
+        mBindToday = new Histogram();
+        mBindFutureDay = new Histogram();
+        mImageLoads = new Histogram();
+        mImageMemoryHits = new Histogram();
+        mImageFailures = 0;
+    }
+
+    public void dump(PrintWriter writer) {
+        writer.println("Forecast list, since " + mStartMillis + " ("
+                + (System.currentTimeMillis() - mStartMillis) / 1000 + "s ago)");
+        writer.println("  janky frames: " + mJankyFrames + " of " + mFrames.getCount()
+                + ", " + mDroppedFrames + " vsyncs missed");
+        dump(writer, "scroll frame interval (us)", mFrames);
+        dump(writer, "bind today (us)", mBindToday);
+        dump(writer, "bind future day (us)", mBindFutureDay);
+        dump(writer, "image load (us)", mImageLoads);
+        dump(writer, "image load, memory cache (us)", mImageMemoryHits);
+        writer.println("  image load failures: " + mImageFailures);
+    }
+
+    private static void dump(PrintWriter writer, String name, Histogram histogram) {
+        writer.print("  ");
+        writer.print(name);
+        writer.print(": ");
+        histogram.dump(writer);
+        writer.println();
+    }
+
+    /**
+     * Times each frame while a RecyclerView is scrolling.  It only asks for frame callbacks
+     * between the start of a scroll and the list coming to rest, so an idle list doesn't keep
+     * waking up for vsync.
+     */
+    static class ScrollFrameMonitor extends RecyclerView.OnScrollListener
+            implements Choreographer.FrameCallback {
+
+        private final long mFrameIntervalNanos;
+        private RecyclerView mRecyclerView;
+        private long mLastFrameNanos;
+
+        ScrollFrameMonitor(Context context) {
+            WindowManager windowManager =
+                    (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+            mFrameIntervalNanos =
+                    (long) (1000000000L / windowManager.getDefaultDisplay().getRefreshRate());
+        }
+
+        @Override
+        public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+            if (newState != RecyclerView.SCROLL_STATE_IDLE && null == mRecyclerView) {
+                mRecyclerView = recyclerView;
+                mLastFrameNanos = 0;
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            RecyclerView recyclerView = mRecyclerView;
+            if (recyclerView.getScrollState() == RecyclerView.SCROLL_STATE_IDLE
+                    || !ViewCompat.isAttachedToWindow(recyclerView)) {
+                mRecyclerView = null;
+                return;
+            }
+            if (0 != mLastFrameNanos) {
+                get().recordFrame(frameTimeNanos - mLastFrameNanos, mFrameIntervalNanos);
+            }
+            mLastFrameNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phaseshiftlab.sunshine.app;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.Toolbar;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Debug screen showing {@link ForecastListStats}, with actions to start them over and to write
+ * them to a file that can be pulled off the device.
+ */
+public class ForecastListStatsActivity extends AppCompatActivity {
+
+    private static final String LOG_TAG = ForecastListStatsActivity.class.getSimpleName();
+
+    private TextView mStatsView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_forecast_list_stats);
+        Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+        getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        mStatsView = (TextView) findViewById(R.id.list_stats_textview);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mStatsView.setText(dumpStats());
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.forecast_list_stats, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        int id = item.getItemId();
+        if (id == R.id.action_list_stats_reset) {
+            ForecastListStats.get().reset();
+            mStatsView.setText(dumpStats());
+            return true;
+        }
+        if (id == R.id.action_list_stats_export) {
+            new ExportTask(getApplicationContext()).execute(dumpStats());
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private static String dumpStats() {
+        StringWriter stats = new StringWriter();
+        PrintWriter writer = new PrintWriter(stats);
+        ForecastListStats.get().dump(writer);
+        writer.flush();
+        return stats.toString();
+    }
+
+    /**
+     * Writes the stats to a new file in the app's external files directory, which needs no
+     * permission and can be read with adb.
+     */
+    private static class ExportTask extends AsyncTask<String, Void, File> {
+        private final Context mContext;
+
+        ExportTask(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        protected File doInBackground(String... stats) {
+            File dir = mContext.getExternalFilesDir(null);
+            if (null == dir) {
+                // External storage isn't mounted
+                dir = mContext.getFilesDir();
+            }
+            File file = new File(dir, "forecast_list_stats_" + System.currentTimeMillis() + ".txt");
+            FileOutputStream out = null;
+            try {
+                out = new FileOutputStream(file);
+                out.write(stats[0].getBytes("UTF-8"));
+                return file;
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error writing " + file, e);
+                return null;
+            } finally {
+                if (null != out) {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        Log.e(LOG_TAG, "Error closing " + file, e);
+                    }
+                }
+            }
+        }
+
+        @Override
+        protected void onPostExecute(File file) {
+            if (null == file) {
+                Toast.makeText(mContext, R.string.list_stats_export_failed, Toast.LENGTH_LONG)
+                        .show();
+            } else {
+                Toast.makeText(mContext,
+                        mContext.getString(R.string.list_stats_exported, file.getAbsolutePath()),
+                        Toast.LENGTH_LONG).show();
+            }
+        }
+    }
+}
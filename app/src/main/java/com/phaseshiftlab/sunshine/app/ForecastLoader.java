@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phaseshiftlab.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.support.v4.content.CursorLoader;
+
+/**
+ * A {@link CursorLoader} that also builds the {@link ForecastListSnapshot} for the rows it
+ * loads, and the {@link ForecastListDiff} from the snapshot it delivered last, so that work
+ * happens on the loader thread instead of on the main thread.
+ *
+ * It still delivers a {@link Cursor}, so callers that read the raw columns keep working; use
+ * {@link #getSnapshot(Cursor)} to get at the rows.
+ */
+public class ForecastLoader extends CursorLoader {
+
+    // Written on the main thread as results are delivered, read on the loader thread
+    private volatile ForecastListSnapshot mDelivered = ForecastListSnapshot.EMPTY;
+
+    public ForecastLoader(Context context, Uri uri, String[] projection, String selection,
+                          String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        Cursor cursor = super.loadInBackground();
+        if (cursor == null) return null;
+        ForecastListSnapshot snapshot = ForecastListSnapshot.build(getContext(), cursor);
+        return new SnapshotCursor(cursor, snapshot, ForecastListDiff.compute(mDelivered, snapshot));
+    }
+
+    @Override
+    public void deliverResult(Cursor cursor) {
+        if (!isReset()) {
+            mDelivered = getSnapshot(cursor);
+        }
+        super.deliverResult(cursor);
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        mDelivered = ForecastListSnapshot.EMPTY;
+    }
+
+    /**
+     * @return the rows built for a cursor delivered by this loader, or
+     * {@link ForecastListSnapshot#EMPTY} if there is none.
+     */
+    public static ForecastListSnapshot getSnapshot(Cursor cursor) {
+        if (cursor instanceof SnapshotCursor) {
+            return ((SnapshotCursor) cursor).mSnapshot;
+        }
+        return ForecastListSnapshot.EMPTY;
+    }
+
+    /**
+     * @return the changes from the previously delivered rows to the rows of a cursor delivered
+     * by this loader, or null if there is none.  Only apply it if the rows on screen are
+     * {@link ForecastListDiff#getFrom()}.
+     */
+    public static ForecastListDiff getDiff(Cursor cursor) {
+        if (cursor instanceof SnapshotCursor) {
+            return ((SnapshotCursor) cursor).mDiff;
+        }
+        return null;
+    }
+
+    private static class SnapshotCursor extends CursorWrapper {
+        final ForecastListSnapshot mSnapshot;
+        final ForecastListDiff mDiff;
+
+        SnapshotCursor(Cursor cursor, ForecastListSnapshot snapshot, ForecastListDiff diff) {
+            super(cursor);
+            mSnapshot = snapshot;
+            mDiff = diff;
+        }
+    }
+}
@@ -46,6 +46,18 @@ public class ItemChoiceManager {
         }
     };
 
+    /**
+     * Finds where an item is after a data set change, for adapters that keep an index of their
+     * rows by ID.
+     */
+    public interface PositionLookup {
+        /**
+         * @return the current position of the item with the given ID, or
+         * RecyclerView.NO_POSITION if it is gone.
+         */
+        int getPositionForId(long id);
+    }
+
     private ItemChoiceManager() {
     }
 
@@ -188,6 +200,28 @@ public class ItemChoiceManager {
         }
     }
 
+    /**
+     * Like {@link #confirmCheckedPositionsById(int)}, but looks each checked ID up directly
+     * instead of searching around its last position with {@link RecyclerView.Adapter#getItemId},
+     * so items are found however far they moved.
+     */
+    void confirmCheckedPositionsById(PositionLookup lookup) {
+        // Clear out the positional check states, we'll rebuild it below from IDs.
+        mCheckStates.clear();
+
+        for (int checkedIndex = 0; checkedIndex < mCheckedIdStates.size(); checkedIndex++) {
+            final long id = mCheckedIdStates.keyAt(checkedIndex);
+            final int position = lookup.getPositionForId(id);
+            if (position == RecyclerView.NO_POSITION) {
+                mCheckedIdStates.removeAt(checkedIndex);
+                checkedIndex--;
+            } else {
+                mCheckStates.put(position, true);
+                mCheckedIdStates.setValueAt(checkedIndex, position);
+            }
+        }
+    }
+
     public void onBindViewHolder(RecyclerView.ViewHolder vh, int position) {
         boolean checked = isItemChecked(position);
         if (vh.itemView instanceof Checkable) {
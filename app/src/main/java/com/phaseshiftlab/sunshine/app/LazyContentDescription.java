@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phaseshiftlab.sunshine.app;
+
+import android.support.v4.view.AccessibilityDelegateCompat;
+import android.support.v4.view.ViewCompat;
+import android.support.v4.view.accessibility.AccessibilityNodeInfoCompat;
+import android.view.View;
+import android.view.accessibility.AccessibilityEvent;
+
+/**
+ * A content description that is only formatted when an accessibility service asks for it.
+ *
+ * Binding just records the format and its argument with {@link #set(int, CharSequence)};
+ * the string is built the first time a service reads the view's node info or one of its
+ * events, so nothing is formatted for the majority of users who don't run one.
+ *
+ * Views that can't take a delegate, like RemoteViews, still need their description set
+ * up front.
+ */
+public class LazyContentDescription extends AccessibilityDelegateCompat {
+    private int mFormatId;
+    private CharSequence mArg;
+    private CharSequence mDescription;
+
+    /**
+     * Creates a description and makes it the accessibility delegate of each of the views.
+     */
+    public static LazyContentDescription attach(View... views) {
+        LazyContentDescription description = new LazyContentDescription();
+        for (View view : views) {
+            ViewCompat.setAccessibilityDelegate(view, description);
+        }
+        return description;
+    }
+
+    /**
+     * @param formatId a string resource with one %s for the argument
+     */
+    public void set(int formatId, CharSequence arg) {
+        mFormatId = formatId;
+        mArg = arg;
+        mDescription = null;
+    }
+
+    private CharSequence get(View host) {
+        if (mDescription == null && mFormatId != 0) {
+            mDescription = host.getContext().getString(mFormatId, mArg);
+        }
+        return mDescription;
+    }
+
+    @Override
+    public void onInitializeAccessibilityNodeInfo(View host, AccessibilityNodeInfoCompat info) {
+        super.onInitializeAccessibilityNodeInfo(host, info);
+        CharSequence description = get(host);
+        if (description != null) {
+            info.setContentDescription(description);
+        }
+    }
+
+    @Override
+    public void onInitializeAccessibilityEvent(View host, AccessibilityEvent event) {
+        super.onInitializeAccessibilityEvent(host, event);
+        CharSequence description = get(host);
+        if (description != null) {
+            event.setContentDescription(description);
+        }
+    }
+}
@@ -114,6 +114,7 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.main, menu);
+        menu.findItem(R.id.action_list_stats).setVisible(BuildConfig.DEBUG);
         return true;
     }
 
@@ -129,6 +130,10 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
             startActivity(new Intent(this, SettingsActivity.class));
             return true;
         }
+        if (id == R.id.action_list_stats) {
+            startActivity(new Intent(this, ForecastListStatsActivity.class));
+            return true;
+        }
 
         return super.onOptionsItemSelected(item);
     }
@@ -26,7 +26,6 @@ import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.NotificationManagerCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
@@ -35,6 +34,8 @@ import com.phaseshiftlab.sunshine.app.MainActivity;
 import com.phaseshiftlab.sunshine.app.R;
 import com.phaseshiftlab.sunshineutilitylib.data.WeatherContract;
 import com.phaseshiftlab.sunshine.app.muzei.WeatherMuzeiSource;
+import com.phaseshiftlab.sunshineutilitylib.JulianDays;
+import com.phaseshiftlab.sunshineutilitylib.SettingsSnapshot;
 import com.phaseshiftlab.sunshineutilitylib.Utility;
 
 import org.json.JSONArray;
@@ -291,14 +292,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             // current day, we're going to take advantage of that to get a nice
             // normalized UTC date for all of our weather.
 
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
             // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
+            int julianStartDay = JulianDays.getCurrentJulianDay();
 
             for(int i = 0; i < weatherArray.length(); i++) {
                 // These are the values that will be collected.
@@ -318,7 +313,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 JSONObject dayForecast = weatherArray.getJSONObject(i);
 
                 // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
+                dateTime = JulianDays.getStartOfJulianDay(julianStartDay+i);
 
                 pressure = dayForecast.getDouble(OWM_PRESSURE);
                 humidity = dayForecast.getInt(OWM_HUMIDITY);
@@ -359,12 +354,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             if ( cVVector.size() > 0 ) {
                 ContentValues[] cvArray = new ContentValues[cVVector.size()];
                 cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
+                // Swap in the new forecast as a whole.  This also drops this location's days
+                // that aren't in it any more; the maintenance pass prunes the other locations.
+                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.REFRESH_URI, cvArray);
 
                 updateWidgets();
                 updateMuzei();
@@ -644,6 +636,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
     public static void initializeSyncAdapter(Context context) {
         getSyncAccount(context);
+        WeatherMaintenanceTaskService.scheduleMaintenance(context);
     }
 
     /**
@@ -657,5 +650,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         SharedPreferences.Editor spe = sp.edit();
         spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
         spe.commit();
+        // The change listeners run later on the main thread; readers shouldn't wait for them
+        SettingsSnapshot.invalidate();
     }
 }
\ No newline at end of file
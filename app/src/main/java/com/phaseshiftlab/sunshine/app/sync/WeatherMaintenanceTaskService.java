@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phaseshiftlab.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.google.android.gms.gcm.GcmNetworkManager;
+import com.google.android.gms.gcm.GcmTaskService;
+import com.google.android.gms.gcm.PeriodicTask;
+import com.google.android.gms.gcm.TaskParams;
+import com.phaseshiftlab.sunshineutilitylib.data.WeatherContract;
+
+/**
+ * Periodically runs the weather database retention and compaction pass.  The task only fires
+ * while the device is charging, so the vacuum and ANALYZE never compete with the user.
+ */
+public class WeatherMaintenanceTaskService extends GcmTaskService {
+    private static final String LOG_TAG = WeatherMaintenanceTaskService.class.getSimpleName();
+    private static final String TASK_TAG = "weather_db_maintenance";
+
+    // Once a day, whenever the device happens to be charging within the window.
+    private static final long MAINTENANCE_PERIOD_SECONDS = 60 * 60 * 24;
+    private static final long MAINTENANCE_FLEX_SECONDS = MAINTENANCE_PERIOD_SECONDS / 2;
+
+    /**
+     * Helper method to schedule the maintenance task.  An already scheduled task is left as is.
+     */
+    public static void scheduleMaintenance(Context context) {
+        PeriodicTask task = new PeriodicTask.Builder()
+                .setService(WeatherMaintenanceTaskService.class)
+                .setTag(TASK_TAG)
+                .setPeriod(MAINTENANCE_PERIOD_SECONDS)
+                .setFlex(MAINTENANCE_FLEX_SECONDS)
+                .setRequiresCharging(true)
+                .setRequiredNetwork(PeriodicTask.NETWORK_STATE_ANY)
+                .setPersisted(true)
+                .setUpdateCurrent(false)
+                .build();
+        GcmNetworkManager.getInstance(context).schedule(task);
+    }
+
+    @Override
+    public int onRunTask(TaskParams params) {
+        try {
+            // No overrides, so the provider keeps its default retention for every table
+            Bundle report = getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.METHOD_RUN_MAINTENANCE, null, null);
+            Log.d(LOG_TAG, "Database size " + report.getLong(WeatherContract.KEY_DB_SIZE_BEFORE) +
+                    " -> " + report.getLong(WeatherContract.KEY_DB_SIZE_AFTER) + " bytes");
+            return GcmNetworkManager.RESULT_SUCCESS;
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Database maintenance failed", e);
+            return GcmNetworkManager.RESULT_RESCHEDULE;
+        }
+    }
+}
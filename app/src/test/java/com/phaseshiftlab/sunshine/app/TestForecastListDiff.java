@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phaseshiftlab.sunshine.app;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Checks ForecastListDiff by applying its ops, in order, to a plain list holding the old rows
+    and comparing the result with the new rows, as well as checking the exact ops for the
+    changes the forecast list sees in practice.
+ */
+public class TestForecastListDiff extends TestCase {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final String LOCATION = "99705";
+
+    public void testIdenticalSnapshots() {
+        ForecastListDiff diff = ForecastListDiff.compute(days(0, 1, 2), days(0, 1, 2));
+        assertTrue("Error: Identical snapshots should have no ops", diff.isEmpty());
+        assertEquals("", apply(diff));
+    }
+
+    public void testMidnightRemovesFirstDay() {
+        ForecastListDiff diff = ForecastListDiff.compute(
+                days(0, 1, 2, 3, 4, 5, 6), days(1, 2, 3, 4, 5, 6, 7));
+        assertEquals("remove 0+1, insert 6+1", apply(diff));
+    }
+
+    public void testAppendedDays() {
+        ForecastListDiff diff = ForecastListDiff.compute(days(0, 1, 2), days(0, 1, 2, 3, 4));
+        assertEquals("insert 3+2", apply(diff));
+    }
+
+    public void testMixedRuns() {
+        List<ForecastListSnapshot.Item> to = new ArrayList<ForecastListSnapshot.Item>();
+        to.add(day(1, "10"));
+        to.add(day(2, "21"));
+        to.add(day(3, "22"));
+        to.add(day(4, "10"));
+        to.add(day(5, "10"));
+        to.add(day(7, "10"));
+        ForecastListDiff diff = ForecastListDiff.compute(days(0, 1, 2, 3, 5, 6),
+                ForecastListSnapshot.of(to));
+        // Day 0 goes, days 2 and 3 change in one run, day 4 comes in, and day 6 gives way to 7
+        assertEquals("remove 0+1, change 1+2, insert 3+1, remove 5+1, insert 5+1", apply(diff));
+    }
+
+    public void testEmptyOldSnapshot() {
+        ForecastListDiff diff = ForecastListDiff.compute(ForecastListSnapshot.EMPTY, days(0, 1, 2));
+        assertEquals("insert 0+3", apply(diff));
+    }
+
+    public void testEmptyNewSnapshot() {
+        ForecastListDiff diff = ForecastListDiff.compute(days(0, 1, 2), ForecastListSnapshot.EMPTY);
+        assertEquals("remove 0+3", apply(diff));
+    }
+
+    /**
+     * Applies the ops to a copy of the old rows, checks that it ends up showing the new ones,
+     * and returns the ops it applied.
+     */
+    private static String apply(ForecastListDiff diff) {
+        final List<ForecastListSnapshot.Item> rows =
+                new ArrayList<ForecastListSnapshot.Item>(diff.getFrom().getItems());
+        final ForecastListSnapshot to = diff.getTo();
+        final StringBuilder ops = new StringBuilder();
+        diff.dispatchUpdatesTo(new ForecastListDiff.Callback() {
+            @Override
+            public void onInserted(int position, int count) {
+                record("insert", position, count);
+                for (int i = 0; i < count; i++) {
+                    rows.add(position + i, to.get(position + i));
+                }
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                record("remove", position, count);
+                for (int i = 0; i < count; i++) {
+                    rows.remove(position);
+                }
+            }
+
+            @Override
+            public void onChanged(int position, int count) {
+                record("change", position, count);
+                for (int i = 0; i < count; i++) {
+                    assertFalse("Error: Changed a row that is the same",
+                            rows.get(position + i).sameContentAs(to.get(position + i)));
+                    rows.set(position + i, to.get(position + i));
+                }
+            }
+
+            private void record(String op, int position, int count) {
+                if (ops.length() > 0) ops.append(", ");
+                ops.append(op).append(' ').append(position).append('+').append(count);
+            }
+        });
+
+        assertEquals("Error: Applying the ops left the wrong number of rows", to.size(), rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            assertTrue("Error: Applying the ops left a stale row at " + i,
+                    rows.get(i).sameContentAs(to.get(i)));
+        }
+        return ops.toString();
+    }
+
+    private static ForecastListSnapshot days(int... days) {
+        List<ForecastListSnapshot.Item> items = new ArrayList<ForecastListSnapshot.Item>();
+        for (int day : days) {
+            items.add(day(day, "10"));
+        }
+        return ForecastListSnapshot.of(items);
+    }
+
+    private static ForecastListSnapshot.Item day(int day, String high) {
+        return new ForecastListSnapshot.Item(day, day * DAY_IN_MILLIS, LOCATION, 800,
+                R.drawable.ic_clear, R.drawable.art_clear, null,
+                "Day " + day, "Today, day " + day,
+                "Clear", high, "5",
+                "Day " + day, 10, 5,
+                "50 %", "5 km/h N", "1000 hPa");
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phaseshiftlab.sunshineutilitylib;
+
+import android.os.Debug;
+import android.util.Log;
+
+/*
+    Runs the loops of the benchmark tests, timing them and counting what they allocate.  The
+    timings are only logged, since they vary too much between devices and runs to assert on;
+    allocation counts don't, so tests may assert on those.
+ */
+final class Benchmark {
+    private static final String LOG_TAG = Benchmark.class.getSimpleName();
+
+    /**
+     * One pass of a benchmark loop.
+     */
+    interface Body {
+        /**
+         * @return something computed from the work, so that it can't be optimized away.
+         */
+        int run(int iteration);
+    }
+
+    // Where the bodies' results end up
+    private static volatile int sSink;
+
+    final String name;
+    final int iterations;
+    final long elapsedNanos;
+    final int allocations;
+
+    private Benchmark(String name, int iterations, long elapsedNanos, int allocations) {
+        this.name = name;
+        this.iterations = iterations;
+        this.elapsedNanos = elapsedNanos;
+        this.allocations = allocations;
+    }
+
+    /**
+     * Runs a body without measuring it, to get past class loading, caches being filled and
+     * the JIT.
+     */
+    static void warmUp(int iterations, Body body) {
+        int sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            sink += body.run(i);
+        }
+        sSink += sink;
+    }
+
+    // The Debug allocation counters are deprecated, but they are the only per-thread count
+    @SuppressWarnings("deprecation")
+    static Benchmark run(String name, int iterations, Body body) {
+        int sink = 0;
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        long startTime = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += body.run(i);
+        }
+        long elapsedNanos = System.nanoTime() - startTime;
+        int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+        sSink += sink;
+        return new Benchmark(name, iterations, elapsedNanos, allocations);
+    }
+
+    /**
+     * Logs the cost per iteration of runs that did the same thing different ways.
+     */
+    static void log(String operation, Benchmark... runs) {
+        StringBuilder line = new StringBuilder(operation).append(':');
+        for (int i = 0; i < runs.length; i++) {
+            Benchmark run = runs[i];
+            line.append(i == 0 ? " " : ", ")
+                    .append(run.name).append(' ')
+                    .append(run.elapsedNanos / run.iterations).append(" ns/op ")
+                    .append((float) run.allocations / run.iterations).append(" allocs/op");
+        }
+        Log.i(LOG_TAG, line.toString());
+    }
+}
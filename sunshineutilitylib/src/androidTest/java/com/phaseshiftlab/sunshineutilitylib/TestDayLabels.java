@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phaseshiftlab.sunshineutilitylib;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+
+/*
+    Checks the cached day labels against the SimpleDateFormat per call code they replaced, and
+    benchmarks a forecast list's worth of labels both ways.
+ */
+public class TestDayLabels extends AndroidTestCase {
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int ITERATIONS = 1000;
+
+    // The day labels as Utility used to build them
+    private static String getDayNameUncached(Context context, long dateInMillis) {
+        int julianDay = JulianDays.getJulianDay(dateInMillis);
+        int currentJulianDay = JulianDays.getCurrentJulianDay();
+        if (julianDay == currentJulianDay) {
+            return context.getString(R.string.today);
+        } else if (julianDay == currentJulianDay + 1) {
+            return context.getString(R.string.tomorrow);
+        } else {
+            return new SimpleDateFormat("EEEE").format(dateInMillis);
+        }
+    }
+
+    private static String getFormattedMonthDayUncached(long dateInMillis) {
+        return new SimpleDateFormat("MMMM dd").format(dateInMillis);
+    }
+
+    private static String getFriendlyDayStringUncached(Context context, long dateInMillis,
+                                                       boolean displayLongToday) {
+        int julianDay = JulianDays.getJulianDay(dateInMillis);
+        int currentJulianDay = JulianDays.getCurrentJulianDay();
+        if (displayLongToday && julianDay == currentJulianDay) {
+            return String.format(context.getString(R.string.format_full_friendly_date,
+                    context.getString(R.string.today), getFormattedMonthDayUncached(dateInMillis)));
+        } else if (julianDay < currentJulianDay + 7) {
+            return getDayNameUncached(context, dateInMillis);
+        } else {
+            return new SimpleDateFormat("EEE MMM dd").format(dateInMillis);
+        }
+    }
+
+    private static String getFullFriendlyDayStringUncached(Context context, long dateInMillis) {
+        return String.format(context.getString(R.string.format_full_friendly_date,
+                getDayNameUncached(context, dateInMillis),
+                getFormattedMonthDayUncached(dateInMillis)));
+    }
+
+    public void testMatchesUncached() {
+        long now = System.currentTimeMillis();
+        // Well past both ends of the cached days, and at different times of day
+        for (int day = -10; day < 30; day++) {
+            long date = now + day * DAY_IN_MILLIS;
+            for (long time : new long[] {date, JulianDays.normalizeDate(date)}) {
+                assertEquals(getDayNameUncached(mContext, time), Utility.getDayName(mContext, time));
+                assertEquals(getFormattedMonthDayUncached(time),
+                        Utility.getFormattedMonthDay(mContext, time));
+                assertEquals(getFriendlyDayStringUncached(mContext, time, true),
+                        Utility.getFriendlyDayString(mContext, time, true));
+                assertEquals(getFriendlyDayStringUncached(mContext, time, false),
+                        Utility.getFriendlyDayString(mContext, time, false));
+                assertEquals(getFullFriendlyDayStringUncached(mContext, time),
+                        Utility.getFullFriendlyDayString(mContext, time));
+            }
+        }
+    }
+
+    public void testFollowsLocale() {
+        Locale saved = Locale.getDefault();
+        long date = System.currentTimeMillis() + 10 * DAY_IN_MILLIS;
+        try {
+            Locale.setDefault(Locale.US);
+            String english = Utility.getFormattedMonthDay(mContext, date);
+            Locale.setDefault(Locale.FRANCE);
+            assertEquals(getFormattedMonthDayUncached(date),
+                    Utility.getFormattedMonthDay(mContext, date));
+            assertFalse("Error: Day labels didn't follow the locale",
+                    english.equals(Utility.getFormattedMonthDay(mContext, date)));
+        } finally {
+            Locale.setDefault(saved);
+            DayLabels.invalidate();
+        }
+    }
+
+    public void testForecastLabelsBenchmark() {
+        final long now = System.currentTimeMillis();
+        Benchmark uncachedRun = Benchmark.run("SimpleDateFormat", ITERATIONS, new Benchmark.Body() {
+            @Override
+            public int run(int iteration) {
+                int sink = 0;
+                for (int day = 0; day < 14; day++) {
+                    sink += getFriendlyDayStringUncached(mContext, now + day * DAY_IN_MILLIS, day == 0).length();
+                }
+                return sink;
+            }
+        });
+
+        Utility.getFriendlyDayString(mContext, now, true);
+        Benchmark cachedRun = Benchmark.run("DayLabels", ITERATIONS, new Benchmark.Body() {
+            @Override
+            public int run(int iteration) {
+                int sink = 0;
+                for (int day = 0; day < 14; day++) {
+                    sink += Utility.getFriendlyDayString(mContext, now + day * DAY_IN_MILLIS, day == 0).length();
+                }
+                return sink;
+            }
+        });
+
+        Benchmark.log("14 day labels", uncachedRun, cachedRun);
+    }
+}
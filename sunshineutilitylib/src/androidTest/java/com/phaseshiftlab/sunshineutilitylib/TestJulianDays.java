@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phaseshiftlab.sunshineutilitylib;
+
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+/*
+    Checks JulianDays against the Time based code it replaced, and benchmarks the two.  The
+    benchmarks log their timings and fail if JulianDays allocates at all.
+ */
+public class TestJulianDays extends AndroidTestCase {
+    private static final long HOUR_IN_MILLIS = 1000 * 60 * 60;
+    private static final int ITERATIONS = 100000;
+
+    // The normalization WeatherContract.normalizeDate used to do
+    private static long normalizeWithTime(long date) {
+        Time time = new Time();
+        time.set(date);
+        int julianDay = Time.getJulianDay(date, time.gmtoff);
+        return time.setJulianDay(julianDay);
+    }
+
+    public void testMatchesTime() {
+        // Every few hours across a couple of years, which covers the DST changes
+        long start = System.currentTimeMillis() - 365 * 24 * HOUR_IN_MILLIS;
+        for (long date = start; date < start + 2 * 365 * 24 * HOUR_IN_MILLIS; date += 5 * HOUR_IN_MILLIS) {
+            Time time = new Time();
+            time.set(date);
+            assertEquals("Error: Julian day differs for " + date,
+                    Time.getJulianDay(date, time.gmtoff), JulianDays.getJulianDay(date));
+            assertEquals("Error: Normalized date differs for " + date,
+                    normalizeWithTime(date), JulianDays.normalizeDate(date));
+        }
+    }
+
+    public void testNormalizeIsIdempotent() {
+        long normalized = JulianDays.normalizeDate(System.currentTimeMillis());
+        assertEquals(normalized, JulianDays.normalizeDate(normalized));
+        assertEquals(JulianDays.getCurrentJulianDay(), JulianDays.getJulianDay(normalized));
+    }
+
+    public void testNormalizeDateBenchmark() {
+        final long date = System.currentTimeMillis();
+        Benchmark.Body julianDays = new Benchmark.Body() {
+            @Override
+            public int run(int iteration) {
+                return (int) JulianDays.normalizeDate(date + iteration * HOUR_IN_MILLIS);
+            }
+        };
+        // Let the time zone get cached
+        Benchmark.warmUp(ITERATIONS, julianDays);
+
+        Benchmark julianDaysRun = Benchmark.run("JulianDays", ITERATIONS, julianDays);
+        Benchmark timeRun = Benchmark.run("Time", ITERATIONS, new Benchmark.Body() {
+            @Override
+            public int run(int iteration) {
+                return (int) normalizeWithTime(date + iteration * HOUR_IN_MILLIS);
+            }
+        });
+
+        Benchmark.log("normalizeDate", julianDaysRun, timeRun);
+        assertEquals("Error: JulianDays.normalizeDate allocated", 0, julianDaysRun.allocations);
+    }
+
+    public void testCurrentJulianDayBenchmark() {
+        JulianDays.getCurrentJulianDay();
+
+        Benchmark run = Benchmark.run("JulianDays", ITERATIONS, new Benchmark.Body() {
+            @Override
+            public int run(int iteration) {
+                return JulianDays.getCurrentJulianDay();
+            }
+        });
+
+        Benchmark.log("getCurrentJulianDay", run);
+        assertEquals("Error: JulianDays.getCurrentJulianDay allocated", 0, run.allocations);
+    }
+}
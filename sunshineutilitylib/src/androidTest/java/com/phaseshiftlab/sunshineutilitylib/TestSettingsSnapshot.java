@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phaseshiftlab.sunshineutilitylib;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+/*
+    Checks that the settings Utility reads through SettingsSnapshot match the preferences, and
+    follow changes to them.  The benchmark logs how long a list row's worth of settings reads
+    takes next to the per-call SharedPreferences lookups they replaced.
+ */
+public class TestSettingsSnapshot extends AndroidTestCase {
+    private static final int ITERATIONS = 10000;
+    private static final long LISTENER_TIMEOUT_MILLIS = 5000;
+
+    private SharedPreferences mPrefs;
+    private String mSavedLocation;
+    private String mSavedUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mSavedLocation = mPrefs.getString(mContext.getString(R.string.pref_location_key), null);
+        mSavedUnits = mPrefs.getString(mContext.getString(R.string.pref_units_key), null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        restore(editor, R.string.pref_location_key, mSavedLocation);
+        restore(editor, R.string.pref_units_key, mSavedUnits);
+        editor.commit();
+        SettingsSnapshot.invalidate();
+        super.tearDown();
+    }
+
+    private void restore(SharedPreferences.Editor editor, int keyId, String value) {
+        String key = mContext.getString(keyId);
+        if (value == null) {
+            editor.remove(key);
+        } else {
+            editor.putString(key, value);
+        }
+    }
+
+    // The lookups Utility used to do on every call
+    private static boolean isMetricFromPreferences(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getString(context.getString(R.string.pref_units_key),
+                context.getString(R.string.pref_units_metric))
+                .equals(context.getString(R.string.pref_units_metric));
+    }
+
+    private static boolean usingLocalGraphicsFromPreferences(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        return prefs.getString(context.getString(R.string.pref_art_pack_key),
+                sunshineArtPack).equals(sunshineArtPack);
+    }
+
+    private static String getPreferredLocationFromPreferences(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+    }
+
+    public void testMatchesPreferences() {
+        SettingsSnapshot.invalidate();
+        assertEquals(getPreferredLocationFromPreferences(mContext), Utility.getPreferredLocation(mContext));
+        assertEquals(isMetricFromPreferences(mContext), Utility.isMetric(mContext));
+        assertEquals(usingLocalGraphicsFromPreferences(mContext), Utility.usingLocalGraphics(mContext));
+    }
+
+    public void testFollowsChanges() {
+        String locationKey = mContext.getString(R.string.pref_location_key);
+        String unitsKey = mContext.getString(R.string.pref_units_key);
+
+        mPrefs.edit()
+                .putString(locationKey, "99705")
+                .putString(unitsKey, mContext.getString(R.string.pref_units_metric))
+                .commit();
+        SettingsSnapshot.invalidate();
+        assertEquals("99705", Utility.getPreferredLocation(mContext));
+        assertTrue(Utility.isMetric(mContext));
+
+        // Without an explicit invalidate, the change listener has to pick this up
+        mPrefs.edit()
+                .putString(locationKey, "94043")
+                .putString(unitsKey, "imperial")
+                .commit();
+        new PollingCheck(LISTENER_TIMEOUT_MILLIS) {
+            @Override
+            protected boolean check() {
+                return !Utility.isMetric(mContext);
+            }
+        }.run();
+        assertEquals("94043", Utility.getPreferredLocation(mContext));
+
+        // Our own writes invalidate straight away
+        Utility.resetLocationStatus(mContext);
+        assertEquals(Utility.LOCATION_STATUS_UNKNOWN, Utility.getLocationStatus(mContext));
+    }
+
+    public void testRowSettingsBenchmark() {
+        // What building one list row used to read: the art pack once and the units twice
+        Benchmark preferencesRun = Benchmark.run("SharedPreferences", ITERATIONS,
+                new Benchmark.Body() {
+                    @Override
+                    public int run(int iteration) {
+                        int sink = usingLocalGraphicsFromPreferences(mContext) ? 1 : 0;
+                        if (isMetricFromPreferences(mContext)) sink++;
+                        if (isMetricFromPreferences(mContext)) sink++;
+                        return sink;
+                    }
+                });
+
+        Utility.isMetric(mContext);
+        Benchmark snapshotRun = Benchmark.run("SettingsSnapshot", ITERATIONS,
+                new Benchmark.Body() {
+                    @Override
+                    public int run(int iteration) {
+                        int sink = Utility.usingLocalGraphics(mContext) ? 1 : 0;
+                        if (Utility.isMetric(mContext)) sink++;
+                        if (Utility.isMetric(mContext)) sink++;
+                        return sink;
+                    }
+                });
+
+        Benchmark.log("Settings per row", preferencesRun, snapshotRun);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phaseshiftlab.sunshineutilitylib;
+
+import android.test.AndroidTestCase;
+
+/*
+    Checks the condition tables against the range checks they replaced, and benchmarks the
+    lookups a list row does.
+ */
+public class TestWeatherConditions extends AndroidTestCase {
+    private static final int ITERATIONS = 100;
+
+    // The chain getIconResourceForWeatherCondition used to walk
+    private static int getIconResourceWithChain(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.ic_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.ic_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.ic_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.ic_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.ic_fog;
+        } else if (weatherId == 761 || weatherId == 781) {
+            return R.drawable.ic_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.ic_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.ic_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.ic_cloudy;
+        }
+        return -1;
+    }
+
+    public void testMatchesChains() {
+        String artPack = mContext.getString(R.string.pref_art_pack_sunshine);
+        for (int weatherId = -1; weatherId <= 1000; weatherId++) {
+            int icon = getIconResourceWithChain(weatherId);
+            assertEquals("Error: Icon differs for " + weatherId,
+                    icon, WeatherConditions.getIconResource(weatherId));
+
+            // Art, art URLs and images all follow the icon groups, bar 781 (dust)
+            boolean known = icon != -1;
+            assertEquals(known, WeatherConditions.getArtResource(weatherId) != -1);
+            assertEquals(known, WeatherConditions.getArtUrl(artPack, weatherId) != null);
+            assertEquals(known, WeatherConditions.getImageUrl(weatherId) != null);
+        }
+        assertEquals(R.drawable.art_storm, WeatherConditions.getArtResource(781));
+        assertEquals(R.drawable.art_fog, WeatherConditions.getArtResource(761));
+        assertEquals(String.format(artPack, "storm"), WeatherConditions.getArtUrl(artPack, 781));
+        assertEquals(String.format(artPack, "clouds"), WeatherConditions.getArtUrl(artPack, 803));
+        assertTrue(WeatherConditions.getImageUrl(781).contains("dust"));
+
+        assertEquals(mContext.getString(R.string.condition_2xx),
+                WeatherConditions.getString(mContext, 211));
+        assertEquals(mContext.getString(R.string.condition_962),
+                WeatherConditions.getString(mContext, 962));
+        assertEquals(mContext.getString(R.string.condition_unknown, 999),
+                WeatherConditions.getString(mContext, 999));
+        assertEquals(mContext.getString(R.string.condition_unknown, 1200),
+                WeatherConditions.getString(mContext, 1200));
+    }
+
+    public void testRowLookupsBenchmark() {
+        // Every id from 0 to 999, ITERATIONS times over
+        Benchmark chainRun = Benchmark.run("chain", ITERATIONS * 1000, new Benchmark.Body() {
+            @Override
+            public int run(int iteration) {
+                return getIconResourceWithChain(iteration % 1000)
+                        + mContext.getString(R.string.condition_800).length();
+            }
+        });
+
+        Benchmark tableRun = Benchmark.run("tables", ITERATIONS * 1000, new Benchmark.Body() {
+            @Override
+            public int run(int iteration) {
+                return WeatherConditions.getIconResource(iteration % 1000)
+                        + WeatherConditions.getString(mContext, 800).length();
+            }
+        });
+
+        Benchmark.log("Icon and string lookup", chainRun, tableRun);
+    }
+}
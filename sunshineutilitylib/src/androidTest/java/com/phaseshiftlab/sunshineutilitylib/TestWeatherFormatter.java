@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phaseshiftlab.sunshineutilitylib;
+
+import android.test.AndroidTestCase;
+
+import java.util.Random;
+
+/*
+    Checks WeatherFormatter against the String.format calls it replaced, and benchmarks the
+    two.  The benchmark logs timings and allocations per call, and fails if appending into a
+    reused builder allocates at all.
+ */
+public class TestWeatherFormatter extends AndroidTestCase {
+    private static final int ITERATIONS = 10000;
+
+    // The wind formatting Utility.getFormattedWind used to do
+    private String formatWindWithString(float windSpeed, float degrees, boolean metric) {
+        int windFormat;
+        if (metric) {
+            windFormat = R.string.format_wind_kmh;
+        } else {
+            windFormat = R.string.format_wind_mph;
+            windSpeed = .621371192237334f * windSpeed;
+        }
+        String direction = "Unknown";
+        if (degrees >= 337.5 || degrees < 22.5) {
+            direction = "N";
+        } else if (degrees >= 22.5 && degrees < 67.5) {
+            direction = "NE";
+        } else if (degrees >= 67.5 && degrees < 112.5) {
+            direction = "E";
+        } else if (degrees >= 112.5 && degrees < 157.5) {
+            direction = "SE";
+        } else if (degrees >= 157.5 && degrees < 202.5) {
+            direction = "S";
+        } else if (degrees >= 202.5 && degrees < 247.5) {
+            direction = "SW";
+        } else if (degrees >= 247.5 && degrees < 292.5) {
+            direction = "W";
+        } else if (degrees >= 292.5 && degrees < 337.5) {
+            direction = "NW";
+        }
+        return String.format(mContext.getString(windFormat), windSpeed, direction);
+    }
+
+    private String formatTemperatureWithString(double temperature, boolean metric) {
+        if (!metric) {
+            temperature = (temperature * 1.8) + 32;
+        }
+        return String.format(mContext.getString(R.string.format_temperature), temperature);
+    }
+
+    public void testMatchesStringFormat() {
+        WeatherFormatter formatter = WeatherFormatter.get(mContext);
+        Random random = new Random(0);
+        for (int i = 0; i < ITERATIONS; i++) {
+            // Plenty of exact halves, which is where rounding goes wrong
+            double temperature = random.nextBoolean()
+                    ? (random.nextInt(200) - 100) / 2.0
+                    : (random.nextDouble() - 0.5) * 200;
+            boolean metric = random.nextBoolean();
+            assertEquals(formatTemperatureWithString(temperature, metric),
+                    formatter.formatTemperature(temperature, metric));
+
+            float windSpeed = (float) (random.nextDouble() * 100);
+            float degrees = random.nextBoolean()
+                    ? random.nextInt(16) * 22.5f
+                    : (float) ((random.nextDouble() - 0.1) * 400);
+            assertEquals(formatWindWithString(windSpeed, degrees, metric),
+                    formatter.formatWind(windSpeed, degrees, metric));
+
+            float pressure = (float) (900 + random.nextDouble() * 200);
+            assertEquals(mContext.getString(R.string.format_pressure, pressure),
+                    formatter.formatPressure(pressure));
+            float humidity = (float) (random.nextDouble() * 100);
+            assertEquals(mContext.getString(R.string.format_humidity, humidity),
+                    formatter.formatHumidity(humidity));
+        }
+        assertEquals(formatWindWithString(10, Float.NaN, true), formatter.formatWind(10, Float.NaN, true));
+        assertEquals(formatTemperatureWithString(-0.3, true), formatter.formatTemperature(-0.3, true));
+    }
+
+    public void testFormatTemperatureBenchmark() {
+        final WeatherFormatter formatter = WeatherFormatter.get(mContext);
+        final StringBuilder out = new StringBuilder(32);
+        // Let the per-thread builder get created
+        Benchmark.warmUp(ITERATIONS, new Benchmark.Body() {
+            @Override
+            public int run(int iteration) {
+                out.setLength(0);
+                formatter.appendTemperature(out, iteration / 100.0, true);
+                return formatter.formatTemperature(iteration / 100.0, false).length();
+            }
+        });
+
+        Benchmark stringRun = Benchmark.run("String.format", ITERATIONS, new Benchmark.Body() {
+            @Override
+            public int run(int iteration) {
+                return formatTemperatureWithString(iteration / 100.0, iteration % 2 == 0).length();
+            }
+        });
+        Benchmark appendRun = Benchmark.run("append", ITERATIONS, new Benchmark.Body() {
+            @Override
+            public int run(int iteration) {
+                out.setLength(0);
+                formatter.appendTemperature(out, iteration / 100.0, iteration % 2 == 0);
+                return out.length();
+            }
+        });
+        Benchmark formatRun = Benchmark.run("format", ITERATIONS, new Benchmark.Body() {
+            @Override
+            public int run(int iteration) {
+                return formatter.formatTemperature(iteration / 100.0, iteration % 2 == 0).length();
+            }
+        });
+
+        Benchmark.log("formatTemperature", stringRun, appendRun, formatRun);
+        assertEquals("Error: WeatherFormatter.appendTemperature allocated", 0, appendRun.allocations);
+    }
+}
@@ -17,8 +17,11 @@ package com.phaseshiftlab.sunshineutilitylib.data;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
 import android.test.AndroidTestCase;
+import android.util.Log;
 
 import java.util.HashSet;
 
@@ -55,6 +58,11 @@ public class TestDb extends AndroidTestCase {
         final HashSet<String> tableNameHashSet = new HashSet<String>();
         tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
         tableNameHashSet.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.WeatherLocationEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.WeatherStagingEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.ChangeEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.ArchiveStorageEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.ArchiveStorageEntry.CONDITION_TABLE_NAME);
 
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
         SQLiteDatabase db = new WeatherDbHelper(
@@ -234,4 +242,246 @@ public class TestDb extends AndroidTestCase {
         db.close();
         return locationRowId;
     }
+
+    /*
+        Checks that the weather_location read model follows inserts, updates and deletes on the
+        weather and location tables, and logs how its reads compare with the old JOIN.
+     */
+    public void testWeatherLocationReadModel() {
+        long locationRowId = insertLocation();
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        long weatherRowId = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues);
+        assertTrue(weatherRowId != -1);
+
+        ContentValues expectedValues = new ContentValues(weatherValues);
+        expectedValues.putAll(TestUtilities.createNorthPoleLocationValues());
+        expectedValues.put(WeatherContract.WeatherEntry._ID, weatherRowId);
+        Cursor cursor = db.query(WeatherContract.WeatherLocationEntry.TABLE_NAME,
+                null, null, null, null, null, null);
+        TestUtilities.validateCursor("Error: Read model did not pick up the weather insert",
+                cursor, expectedValues);
+
+        // Location edits must be copied onto every forecast row
+        ContentValues locationUpdate = new ContentValues();
+        locationUpdate.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "Santa's Village");
+        db.update(WeatherContract.LocationEntry.TABLE_NAME, locationUpdate, null, null);
+        expectedValues.putAll(locationUpdate);
+        cursor = db.query(WeatherContract.WeatherLocationEntry.TABLE_NAME,
+                null, null, null, null, null, null);
+        TestUtilities.validateCursor("Error: Read model did not pick up the location update",
+                cursor, expectedValues);
+
+        // Re-inserting the same day replaces the weather row; the copy must not be duplicated
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Comets");
+        db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues);
+        cursor = db.query(WeatherContract.WeatherLocationEntry.TABLE_NAME,
+                null, null, null, null, null, null);
+        assertEquals("Error: Replaced weather row left a stale copy", 1, cursor.getCount());
+        cursor.close();
+
+        db.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+        cursor = db.query(WeatherContract.WeatherLocationEntry.TABLE_NAME,
+                null, null, null, null, null, null);
+        assertEquals("Error: Read model did not pick up the weather delete", 0, cursor.getCount());
+        cursor.close();
+
+        // Rough read-latency comparison between the JOIN and the read model
+        final int days = 365;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < days; i++) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                        TestUtilities.TEST_DATE + i * 1000L * 60 * 60 * 24);
+                db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        final String[] args = {TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE)};
+        final String joinQuery = "SELECT * FROM " + WeatherContract.WeatherEntry.TABLE_NAME +
+                " INNER JOIN " + WeatherContract.LocationEntry.TABLE_NAME + " ON " +
+                WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
+                " = " + WeatherContract.LocationEntry.TABLE_NAME + "." + WeatherContract.LocationEntry._ID +
+                " WHERE " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?";
+        final String readModelQuery = "SELECT * FROM " + WeatherContract.WeatherLocationEntry.TABLE_NAME +
+                " WHERE " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?";
+
+        long joinNanos = timeQuery(db, joinQuery, args, days);
+        long readModelNanos = timeQuery(db, readModelQuery, args, days);
+        Log.i(LOG_TAG, "Read " + days + " rows: JOIN " + joinNanos / 1000 + "us, read model " +
+                readModelNanos / 1000 + "us");
+
+        dbHelper.close();
+    }
+
+    /*
+        Fills the archive in its original plain layout with several locations' worth of months,
+        then compacts it the way the upgrade does.  Checks that every day reads back the same,
+        to the stored precision, and logs how size and range-query time compare.
+     */
+    public void testCompactArchive() {
+        final int locations = 10;
+        final int days = 180;
+        final String[] conditions = {"Clear", "Clouds", "Light Rain", "Rain", "Snow", "Mist"};
+        final long dayInMillis = 1000L * 60 * 60 * 24;
+
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        WeatherDbHelper.createArchiveTables(db);
+        ContentValues[] archived = new ContentValues[locations * days];
+        db.beginTransaction();
+        try {
+            for (int location = 0; location < locations; location++) {
+                for (int day = 0; day < days; day++) {
+                    ContentValues values = TestUtilities.createWeatherValues(location + 1);
+                    values.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                            TestUtilities.TEST_DATE + day * dayInMillis);
+                    values.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                            conditions[(location + day) % conditions.length]);
+                    values.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, -10 + day * 0.13);
+                    values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 5 + day * 0.17);
+                    values.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1013.25 - day * 0.11);
+                    values.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, day % 20 * 0.7);
+                    values.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, day * 7 % 360);
+                    db.insert(WeatherContract.ArchiveEntry.TABLE_NAME, null, values);
+                    archived[location * days + day] = values;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        // A quarter of one location's history, the size of query a history screen would make
+        final String rangeQuery = "SELECT * FROM " + WeatherContract.ArchiveEntry.TABLE_NAME +
+                " WHERE " + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                WeatherContract.WeatherEntry.COLUMN_DATE + " BETWEEN ? AND ?";
+        final String[] args = {Integer.toString(locations / 2),
+                Long.toString(TestUtilities.TEST_DATE),
+                Long.toString(TestUtilities.TEST_DATE + (days / 2 - 1) * dayInMillis)};
+        long plainPages = getUsedPages(db);
+        long plainNanos = timeQuery(db, rangeQuery, args, days / 2);
+
+        WeatherDbHelper.compactArchive(db);
+        long compactPages = getUsedPages(db);
+        long compactNanos = timeQuery(db, rangeQuery, args, days / 2);
+
+        Cursor cursor = db.query(WeatherContract.ArchiveEntry.TABLE_NAME, null, null, null,
+                null, null, WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ", " +
+                        WeatherContract.WeatherEntry.COLUMN_DATE);
+        assertEquals(archived.length, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ContentValues expected = archived[i];
+            assertEquals(expected.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC),
+                    cursor.getString(cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC)));
+            assertEquals(expected.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE).longValue(),
+                    cursor.getLong(cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE)));
+            for (String column : new String[]{WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                    WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                    WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                    WeatherContract.WeatherEntry.COLUMN_DEGREES}) {
+                assertEquals("Error: " + column + " lost more than the stored precision",
+                        expected.getAsDouble(column),
+                        cursor.getDouble(cursor.getColumnIndex(column)), 0.05);
+            }
+        }
+        cursor.close();
+
+        Log.i(LOG_TAG, "Archive of " + archived.length + " days: plain " + plainPages +
+                " pages, " + plainNanos / 1000 + "us per range query; compact " + compactPages +
+                " pages, " + compactNanos / 1000 + "us per range query");
+        assertTrue("Error: Compact archive is not smaller", compactPages < plainPages);
+        db.close();
+    }
+
+    private static long getUsedPages(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)
+                - DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+    }
+
+    private long timeQuery(SQLiteDatabase db, String sql, String[] args, int expectedRows) {
+        final int runs = 20;
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < runs; i++) {
+            Cursor cursor = db.rawQuery(sql, args);
+            assertEquals(expectedRows, cursor.getCount());
+            cursor.close();
+        }
+        return (SystemClock.elapsedRealtimeNanos() - start) / runs;
+    }
+
+    /*
+        The schema as it shipped at WeatherDbHelper.OLDEST_MIGRATABLE_VERSION.  Keep this frozen:
+        newer versions are built from it by running the real migrations.
+     */
+    static void createOldestMigratableSchema(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE location (" +
+                "_id INTEGER PRIMARY KEY," +
+                "location_setting TEXT UNIQUE NOT NULL, " +
+                "city_name TEXT NOT NULL, " +
+                "coord_lat REAL NOT NULL, " +
+                "coord_long REAL NOT NULL );");
+        db.execSQL("CREATE TABLE weather (" +
+                "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "location_id INTEGER NOT NULL, " +
+                "date INTEGER NOT NULL, " +
+                "short_desc TEXT NOT NULL, " +
+                "weather_id INTEGER NOT NULL," +
+                "min REAL NOT NULL, " +
+                "max REAL NOT NULL, " +
+                "humidity REAL NOT NULL, " +
+                "pressure REAL NOT NULL, " +
+                "wind REAL NOT NULL, " +
+                "degrees REAL NOT NULL, " +
+                " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                " UNIQUE (date, location_id) ON CONFLICT REPLACE);");
+    }
+
+    /*
+        Builds a database at every past schema version, fills it with data, and checks that
+        opening it with the current WeatherDbHelper upgrades it without losing anything.
+     */
+    public void testUpgradeFromEveryPastVersion() {
+        for (int version = WeatherDbHelper.OLDEST_MIGRATABLE_VERSION;
+             version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            deleteTheDatabase();
+
+            SQLiteDatabase oldDb = mContext.openOrCreateDatabase(WeatherDbHelper.DATABASE_NAME,
+                    0, null);
+            createOldestMigratableSchema(oldDb);
+            ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+            long locationRowId = oldDb.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                    locationValues);
+            ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+            oldDb.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues);
+            WeatherDbHelper.migrate(oldDb, WeatherDbHelper.OLDEST_MIGRATABLE_VERSION, version);
+            oldDb.setVersion(version);
+            oldDb.close();
+
+            WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+            SQLiteDatabase db = dbHelper.getReadableDatabase();
+            assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+
+            String error = "Error: Upgrade from version " + version + " lost data";
+            TestUtilities.validateCursor(error, db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    null, null, null, null, null, null), locationValues);
+            TestUtilities.validateCursor(error, db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                    null, null, null, null, null, null), weatherValues);
+
+            // The provider reads through the read model, so the data has to show up there too
+            ContentValues joinedValues = new ContentValues(weatherValues);
+            joinedValues.putAll(locationValues);
+            TestUtilities.validateCursor(error, db.query(
+                    WeatherContract.WeatherLocationEntry.TABLE_NAME,
+                    null, null, null, null, null, null), joinedValues);
+            dbHelper.close();
+        }
+    }
 }
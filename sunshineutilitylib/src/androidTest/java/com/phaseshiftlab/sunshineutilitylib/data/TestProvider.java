@@ -16,6 +16,7 @@
 package com.phaseshiftlab.sunshineutilitylib.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderClient;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
@@ -24,12 +25,19 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.test.AndroidTestCase;
+import android.test.MoreAsserts;
 import android.util.Log;
 
 import com.phaseshiftlab.sunshineutilitylib.data.WeatherContract.LocationEntry;
 import com.phaseshiftlab.sunshineutilitylib.data.WeatherContract.WeatherEntry;
 
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -41,6 +49,9 @@ public class TestProvider extends AndroidTestCase {
 
     public static final String LOG_TAG = TestProvider.class.getSimpleName();
 
+    // A second location, to check that writes to one location leave the other alone
+    private static final String OTHER_LOCATION = "12345";
+
     /*
        This helper function deletes all records from both database tables using the ContentProvider.
        It also queries the ContentProvider to make sure that the database has been successfully
@@ -424,11 +435,15 @@ public class TestProvider extends AndroidTestCase {
 
     static private final int BULK_INSERT_RECORDS_TO_INSERT = 10;
     static ContentValues[] createBulkInsertWeatherValues(long locationRowId) {
+        return createBulkInsertWeatherValues(locationRowId, BULK_INSERT_RECORDS_TO_INSERT);
+    }
+
+    static ContentValues[] createBulkInsertWeatherValues(long locationRowId, int count) {
         long currentTestDate = TestUtilities.TEST_DATE;
         long millisecondsInADay = 1000*60*60*24;
-        ContentValues[] returnContentValues = new ContentValues[BULK_INSERT_RECORDS_TO_INSERT];
+        ContentValues[] returnContentValues = new ContentValues[count];
 
-        for ( int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, currentTestDate+= millisecondsInADay ) {
+        for ( int i = 0; i < count; i++, currentTestDate+= millisecondsInADay ) {
             ContentValues weatherValues = new ContentValues();
             weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationRowId);
             weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, currentTestDate);
@@ -512,4 +527,607 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        This test checks that repeated identical location queries are answered from the
+        provider's in-memory cache, and that a write through the provider invalidates it.
+     */
+    public void testWeatherQueryCache() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        WeatherQueryCache cache = ((WeatherProvider) client.getLocalContentProvider()).getQueryCache();
+
+        Uri weatherUri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        int misses = cache.missCount();
+        int hits = cache.hitCount();
+
+        Cursor cursor = mContext.getContentResolver().query(weatherUri, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+        assertEquals("Error: First query should miss the cache", misses + 1, cache.missCount());
+
+        cursor = mContext.getContentResolver().query(weatherUri, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+        assertEquals("Error: Repeated query should hit the cache", hits + 1, cache.hitCount());
+
+        // Deleting through the provider must drop the cached rows.
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        cursor = mContext.getContentResolver().query(weatherUri, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: Cache returned rows after they were deleted", 0, cursor.getCount());
+        cursor.close();
+
+        client.release();
+    }
+
+    /*
+        The test data is dated December 2014, so the maintenance pass should treat all of it as
+        expired, then drop the location that no longer has any weather.
+     */
+    public void testRunMaintenance() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        Bundle report = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_RUN_MAINTENANCE, null, null);
+        assertNotNull(report);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT,
+                report.getInt(WeatherContract.getRowsDeletedKey(WeatherEntry.TABLE_NAME)));
+        assertEquals(1, report.getInt(WeatherContract.getRowsDeletedKey(LocationEntry.TABLE_NAME)));
+        assertTrue(report.getLong(WeatherContract.KEY_DB_SIZE_BEFORE) > 0);
+        assertTrue(report.getLong(WeatherContract.KEY_DB_SIZE_AFTER) > 0);
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: Orphaned location was not removed", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        Deleting past days through the provider should archive them first and fold them into
+        the weekly and monthly rollups, which are then readable through their own URIs.
+     */
+    public void testArchiveAndRollups() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        // The test data is all in the past, so all of it gets archived
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+
+        long firstDate = weatherValues[0].getAsLong(WeatherEntry.COLUMN_DATE);
+        long lastDate = weatherValues[BULK_INSERT_RECORDS_TO_INSERT - 1].getAsLong(WeatherEntry.COLUMN_DATE);
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.ArchiveEntry.buildArchiveLocationWithRange(
+                        TestUtilities.TEST_LOCATION, firstDate, lastDate),
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: Deleted days were not archived",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+
+        // Deleting again must not count any day twice
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.RollupEntry.buildRollupLocationWithRange(TestUtilities.TEST_LOCATION,
+                        WeatherContract.RollupEntry.PERIOD_MONTH, 0, lastDate),
+                null, null, null, null);
+        int days = 0;
+        double lowest = Double.MAX_VALUE;
+        while (cursor.moveToNext()) {
+            days += cursor.getInt(cursor.getColumnIndex(WeatherContract.RollupEntry.COLUMN_DAY_COUNT));
+            lowest = Math.min(lowest,
+                    cursor.getDouble(cursor.getColumnIndex(WeatherContract.RollupEntry.COLUMN_MIN_TEMP)));
+            assertEquals("Error: Every test day is 3xx and should be counted as drizzle",
+                    cursor.getInt(cursor.getColumnIndex(WeatherContract.RollupEntry.COLUMN_DAY_COUNT)),
+                    cursor.getInt(cursor.getColumnIndex(WeatherContract.RollupEntry.COLUMN_COUNT_DRIZZLE)));
+        }
+        cursor.close();
+        assertEquals("Error: Monthly rollups did not count every archived day",
+                BULK_INSERT_RECORDS_TO_INSERT, days);
+        assertEquals(65.0 - (BULK_INSERT_RECORDS_TO_INSERT - 1), lowest);
+
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.RollupEntry.buildRollupLocationWithDate(TestUtilities.TEST_LOCATION,
+                        WeatherContract.RollupEntry.PERIOD_WEEK, firstDate),
+                null, null, null, null);
+        assertEquals("Error: No weekly rollup for an archived day", 1, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        Pages through a location's forecast two days at a time using the limit and keyset
+        after-date parameters, and checks every day comes back exactly once, in order.
+     */
+    public void testKeysetPagination() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        final int pageSize = 2;
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(
+                        TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE, pageSize),
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        int seen = 0;
+        while (cursor.getCount() > 0) {
+            assertTrue("Error: Page larger than the limit", cursor.getCount() <= pageSize);
+            long lastDate = 0;
+            while (cursor.moveToNext()) {
+                TestUtilities.validateCurrentRecord("testKeysetPagination. Error validating day " + seen,
+                        cursor, weatherValues[seen++]);
+                lastDate = cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE));
+            }
+            cursor.close();
+            cursor = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocationAfterDate(
+                            TestUtilities.TEST_LOCATION, lastDate, pageSize),
+                    null, null, null, null);
+        }
+        cursor.close();
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, seen);
+    }
+
+    /*
+        This test checks that the forecast snapshot call returns today and the following days,
+        and that it sees writes made after a previous snapshot was served.
+     */
+    public void testForecastSnapshot() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        final long dayInMillis = 1000 * 60 * 60 * 24;
+
+        ContentValues[] weatherValues = new ContentValues[3];
+        for (int i = 0; i < weatherValues.length; i++) {
+            weatherValues[i] = TestUtilities.createWeatherValues(locationRowId);
+            // yesterday, today and tomorrow
+            weatherValues[i].put(WeatherEntry.COLUMN_DATE, today + (i - 1) * dayInMillis);
+            weatherValues[i].put(WeatherEntry.COLUMN_MAX_TEMP, 10 + i);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        ForecastSnapshot snapshot = ForecastSnapshot.query(mContext.getContentResolver(),
+                TestUtilities.TEST_LOCATION, 5);
+        assertEquals("Error: Snapshot should start today", 2, snapshot.getDayCount());
+        for (int day = 0; day < snapshot.getDayCount(); day++) {
+            ContentValues expected = weatherValues[day + 1];
+            assertEquals(expected.getAsLong(WeatherEntry.COLUMN_DATE).longValue(), snapshot.getDate(day));
+            assertEquals(expected.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID).intValue(),
+                    snapshot.getWeatherId(day));
+            assertEquals(expected.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP), snapshot.getMaxTemp(day));
+            assertEquals(expected.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP), snapshot.getMinTemp(day));
+        }
+
+        ContentValues updatedValues = new ContentValues();
+        updatedValues.put(WeatherEntry.COLUMN_MAX_TEMP, 42.0);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, updatedValues,
+                WeatherEntry.COLUMN_DATE + " = ?", new String[]{Long.toString(today)});
+
+        snapshot = ForecastSnapshot.query(mContext.getContentResolver(), TestUtilities.TEST_LOCATION, 1);
+        assertEquals(1, snapshot.getDayCount());
+        assertEquals("Error: Snapshot served a stale row after an update", 42.0, snapshot.getMaxTemp(0));
+    }
+
+    /*
+        This test checks that writes publish a snapshot file that can be read back, and that a
+        damaged file is ignored rather than trusted.
+     */
+    public void testForecastSnapshotFile() throws Exception {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        weatherValues.put(WeatherEntry.COLUMN_DATE, today);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues);
+        WeatherProvider provider = getLocalProvider();
+        provider.awaitSnapshotFiles();
+
+        ForecastSnapshotFile snapshot = ForecastSnapshotFile.open(mContext,
+                TestUtilities.TEST_LOCATION, ForecastSnapshotFile.MAX_DAYS);
+        assertNotNull("Error: No snapshot file was published", snapshot);
+        assertEquals(1, snapshot.getDayCount());
+        assertEquals(today, snapshot.getDate(0));
+        assertEquals(weatherValues.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID).intValue(),
+                snapshot.getWeatherId(0));
+        assertEquals(weatherValues.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP), snapshot.getMaxTemp(0));
+        assertEquals(weatherValues.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP), snapshot.getMinTemp(0));
+
+        ContentValues updatedValues = new ContentValues();
+        updatedValues.put(WeatherEntry.COLUMN_MAX_TEMP, 42.0);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, updatedValues, null, null);
+        provider.awaitSnapshotFiles();
+        snapshot = ForecastSnapshotFile.open(mContext, TestUtilities.TEST_LOCATION, 1);
+        assertEquals("Error: Snapshot file was not republished after an update",
+                42.0, snapshot.getMaxTemp(0));
+
+        // Chop the trailer off, as if the writer had died half way through
+        File file = new File(ForecastSnapshotFile.getDirectory(mContext),
+                Uri.encode(TestUtilities.TEST_LOCATION) + ".snapshot");
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(randomAccessFile.length() - 4);
+        } finally {
+            randomAccessFile.close();
+        }
+        // As the provider does whenever it replaces a file
+        ForecastSnapshotFile.markChanged(TestUtilities.TEST_LOCATION);
+        assertNull("Error: A torn snapshot file was trusted",
+                ForecastSnapshotFile.open(mContext, TestUtilities.TEST_LOCATION, 1));
+        assertEquals("Error: Loading should fall back to the provider", 42.0,
+                ForecastSnapshot.load(mContext, TestUtilities.TEST_LOCATION, 1).getMaxTemp(0));
+
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        provider.awaitSnapshotFiles();
+        assertFalse("Error: Snapshot file outlived its location", file.exists());
+    }
+
+    /*
+        This test checks that a write only republishes the snapshot file of the location it
+        touched, and that readers skip the file until it has been republished.
+     */
+    public void testSnapshotFilesPublishTouchedLocations() throws Exception {
+        long northPoleRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues otherLocationValues = TestUtilities.createNorthPoleLocationValues();
+        otherLocationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, OTHER_LOCATION);
+        long otherRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, otherLocationValues));
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues northPoleWeather = TestUtilities.createWeatherValues(northPoleRowId);
+        northPoleWeather.put(WeatherEntry.COLUMN_DATE, today);
+        ContentValues otherWeather = TestUtilities.createWeatherValues(otherRowId);
+        otherWeather.put(WeatherEntry.COLUMN_DATE, today);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{northPoleWeather, otherWeather});
+        WeatherProvider provider = getLocalProvider();
+        provider.awaitSnapshotFiles();
+        long northPoleSequence = ForecastSnapshotFile.open(mContext,
+                TestUtilities.TEST_LOCATION, 1).getSequence();
+        long otherSequence = ForecastSnapshotFile.open(mContext, OTHER_LOCATION, 1).getSequence();
+
+        northPoleWeather.put(WeatherEntry.COLUMN_MAX_TEMP, 42.0);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, northPoleWeather);
+        ForecastSnapshot snapshot = ForecastSnapshot.load(mContext, TestUtilities.TEST_LOCATION, 1);
+        assertEquals("Error: Loading returned an outdated snapshot file", 42.0,
+                snapshot.getMaxTemp(0));
+
+        provider.awaitSnapshotFiles();
+        ForecastSnapshotFile northPole = ForecastSnapshotFile.open(mContext,
+                TestUtilities.TEST_LOCATION, 1);
+        assertTrue("Error: The written location was not republished",
+                northPole.getSequence() > northPoleSequence);
+        assertEquals(42.0, northPole.getMaxTemp(0));
+        assertEquals("Error: A location the write didn't touch was republished", otherSequence,
+                ForecastSnapshotFile.open(mContext, OTHER_LOCATION, 1).getSequence());
+    }
+
+    private WeatherProvider getLocalProvider() {
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        try {
+            return (WeatherProvider) client.getLocalContentProvider();
+        } finally {
+            client.release();
+        }
+    }
+
+    /*
+        This test checks that provider calls show up, per match code, in the dump output.
+     */
+    public void testDumpStats() {
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+        provider.getStats().reset();
+
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), null, null, null, null);
+        cursor.close();
+
+        StringWriter output = new StringWriter();
+        PrintWriter writer = new PrintWriter(output);
+        provider.dump(null, writer, new String[0]);
+        writer.flush();
+        String dump = output.toString();
+        assertTrue("Error: Query latency missing from dump:\n" + dump,
+                dump.contains("query WEATHER_WITH_LOCATION latency (us): count=1"));
+        assertTrue("Error: Rows returned missing from dump:\n" + dump,
+                dump.contains("query WEATHER_WITH_LOCATION rows: count=1 mean="
+                        + BULK_INSERT_RECORDS_TO_INSERT));
+        assertTrue("Error: Transaction hold time missing from dump:\n" + dump,
+                dump.contains("bulkInsert WEATHER transaction held (us): count=1"));
+        assertTrue("Error: Cache stats missing from dump:\n" + dump,
+                dump.contains("Query cache: "));
+
+        client.release();
+    }
+
+    /*
+        This test checks that a forecast refresh leaves each refreshed location with exactly the
+        new days, notifies weather observers once, and leaves other locations alone.
+     */
+    public void testRefreshWeather() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues otherLocation = TestUtilities.createNorthPoleLocationValues();
+        otherLocation.put(LocationEntry.COLUMN_LOCATION_SETTING, "south_pole");
+        long otherLocationRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, otherLocation));
+
+        ContentValues[] oldForecast = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, oldForecast);
+        ContentValues otherWeather = TestUtilities.createWeatherValues(otherLocationRowId);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, otherWeather);
+
+        // The new forecast starts two days later, so it drops two old days and adds two new ones
+        final long twoDaysInMillis = 2L * 1000 * 60 * 60 * 24;
+        ContentValues[] newForecast = createBulkInsertWeatherValues(locationRowId);
+        for (ContentValues value : newForecast) {
+            value.put(WeatherEntry.COLUMN_DATE,
+                    value.getAsLong(WeatherEntry.COLUMN_DATE) + twoDaysInMillis);
+            value.put(WeatherEntry.COLUMN_MAX_TEMP,
+                    value.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP) + 100);
+        }
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true,
+                weatherObserver);
+        int staged = mContext.getContentResolver().bulkInsert(WeatherEntry.REFRESH_URI, newForecast);
+        assertEquals(newForecast.length, staged);
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: Refreshed location should have exactly the new days",
+                newForecast.length, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            TestUtilities.validateCurrentRecord("testRefreshWeather. Error validating day " + i,
+                    cursor, newForecast[i]);
+        }
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation("south_pole"), null, null, null, null);
+        assertEquals("Error: Refresh touched another location", 1, cursor.getCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                null, null, null);
+        assertEquals(newForecast.length + 1, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        This test bulk inserts a large forecast on one thread while another keeps running the
+        forecast list's loader query and inserting single rows, the way the UI and a second
+        writer would, and logs how long they took.  With write-ahead logging the query never
+        waits for the write lock; the single inserts wait at most about as long as the bulk
+        insert is allowed to hold it.
+     */
+    public void testBulkInsertContentionBenchmark() throws Exception {
+        final int ingestRows = 10000;
+        final int listDays = 14;
+        final long millisecondsInADay = 1000*60*60*24;
+
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues otherLocation = TestUtilities.createNorthPoleLocationValues();
+        otherLocation.put(LocationEntry.COLUMN_LOCATION_SETTING, "south_pole");
+        long otherLocationRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, otherLocation));
+
+        final ContentValues[] ingest = createBulkInsertWeatherValues(locationRowId, ingestRows);
+        final Uri ingestUri = WeatherEntry.buildWithMaxLockHold(WeatherEntry.CONTENT_URI,
+                WeatherEntry.DEFAULT_MAX_LOCK_HOLD_MILLIS);
+        final int[] inserted = new int[1];
+        Thread ingestThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                inserted[0] = mContext.getContentResolver().bulkInsert(ingestUri, ingest);
+            }
+        });
+
+        // What ForecastFragment's loader asks for, pointed at the last couple of weeks ingested
+        Uri loaderUri = WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE + (ingestRows - listDays) * millisecondsInADay);
+
+        int queries = 0;
+        long queryNanos = 0;
+        long maxQueryNanos = 0;
+        int writes = 0;
+        long writeNanos = 0;
+        long maxWriteNanos = 0;
+        ingestThread.start();
+        while (ingestThread.isAlive()) {
+            long startTime = System.nanoTime();
+            Cursor cursor = mContext.getContentResolver().query(loaderUri,
+                    WeatherConstantsDefinitions.FORECAST_COLUMNS, null, null,
+                    WeatherEntry.COLUMN_DATE + " ASC");
+            cursor.getCount();
+            cursor.close();
+            long elapsed = System.nanoTime() - startTime;
+            queries++;
+            queryNanos += elapsed;
+            maxQueryNanos = Math.max(maxQueryNanos, elapsed);
+
+            ContentValues weather = TestUtilities.createWeatherValues(otherLocationRowId);
+            weather.put(WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + writes * millisecondsInADay);
+            startTime = System.nanoTime();
+            mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weather);
+            elapsed = System.nanoTime() - startTime;
+            writes++;
+            writeNanos += elapsed;
+            maxWriteNanos = Math.max(maxWriteNanos, elapsed);
+        }
+        ingestThread.join();
+
+        Log.i(LOG_TAG, "Loader query during a " + ingestRows + " row ingest: " + queries
+                + " queries, avg " + queryNanos / Math.max(queries, 1) / 1000 + " us, max "
+                + maxQueryNanos / 1000 + " us; single inserts: " + writes + ", avg "
+                + writeNanos / Math.max(writes, 1) / 1000 + " us, max " + maxWriteNanos / 1000
+                + " us");
+        assertEquals(ingestRows, inserted[0]);
+        assertTrue("Error: No loader queries ran during the ingest", queries > 0);
+    }
+
+    /*
+        This test checks that the change feed returns just the days written after a version,
+        once each, with deletes marked as such.
+     */
+    public void testChangeFeed() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] forecast = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, forecast);
+
+        long version = mContext.getContentResolver().call(WeatherContract.ChangeEntry.CONTENT_URI,
+                WeatherContract.METHOD_GET_CHANGE_VERSION, null, null)
+                .getLong(WeatherContract.KEY_VERSION);
+        assertTrue("Error: The inserts should have moved the feed on", version > 0);
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.ChangeEntry.buildChangesSince(version), null, null, null, null);
+        assertEquals("Error: Nothing changed after the current version", 0, cursor.getCount());
+        cursor.close();
+
+        // Rewrite the first day twice and delete the last one
+        ContentValues updated = new ContentValues(forecast[0]);
+        updated.put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(
+                updated.getAsLong(WeatherEntry.COLUMN_DATE)));
+        updated.put(WeatherEntry.COLUMN_MAX_TEMP, 10.5);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, updated);
+        updated.put(WeatherEntry.COLUMN_MAX_TEMP, 20.5);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, updated);
+        long deletedDate = WeatherContract.normalizeDate(
+                forecast[forecast.length - 1].getAsLong(WeatherEntry.COLUMN_DATE));
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " = ?", new String[]{Long.toString(deletedDate)});
+
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.ChangeEntry.buildChangesForLocationSince(
+                        TestUtilities.TEST_LOCATION, version), null, null, null, null);
+        assertEquals("Error: Expected one row per changed day", 2, cursor.getCount());
+
+        cursor.moveToFirst();
+        ContentValues expected = new ContentValues(updated);
+        expected.put(WeatherContract.ChangeEntry.COLUMN_DELETED, 0);
+        TestUtilities.validateCurrentRecord("testChangeFeed. Error validating updated day",
+                cursor, expected);
+        long updatedVersion = cursor.getLong(
+                cursor.getColumnIndex(WeatherContract.ChangeEntry.COLUMN_VERSION));
+
+        cursor.moveToNext();
+        assertEquals(deletedDate,
+                cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+        assertEquals(1, cursor.getInt(cursor.getColumnIndex(WeatherContract.ChangeEntry.COLUMN_DELETED)));
+        assertEquals(TestUtilities.TEST_LOCATION, cursor.getString(
+                cursor.getColumnIndex(LocationEntry.COLUMN_LOCATION_SETTING)));
+        long deletedVersion = cursor.getLong(
+                cursor.getColumnIndex(WeatherContract.ChangeEntry.COLUMN_VERSION));
+        cursor.close();
+        assertTrue("Error: Changes should come back in version order",
+                version < updatedVersion && updatedVersion < deletedVersion);
+
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.ChangeEntry.buildChangesForLocationSince("south_pole", version),
+                null, null, null, null);
+        assertEquals("Error: Changes leaked into another location", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        This test checks that the change feed only moves for days whose values changed: running
+        the same refresh, or re-inserting the same day, leaves the version where it was.
+     */
+    public void testChangeFeedIgnoresRewrites() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] forecast = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.REFRESH_URI, forecast);
+        long version = getChangeVersion();
+
+        mContext.getContentResolver().bulkInsert(WeatherEntry.REFRESH_URI, forecast);
+        assertEquals("Error: An identical refresh moved the feed on", version, getChangeVersion());
+
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, forecast[0]);
+        assertEquals("Error: Re-inserting a day moved the feed on", version, getChangeVersion());
+
+        // Changing one day logs just that day
+        forecast[1].put(WeatherEntry.COLUMN_MAX_TEMP,
+                forecast[1].getAsDouble(WeatherEntry.COLUMN_MAX_TEMP) + 1);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.REFRESH_URI, forecast);
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.ChangeEntry.buildChangesSince(version), null, null, null, null);
+        assertEquals("Error: Expected only the changed day in the feed", 1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(WeatherContract.normalizeDate(forecast[1].getAsLong(WeatherEntry.COLUMN_DATE)),
+                cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+        cursor.close();
+    }
+
+    private long getChangeVersion() {
+        return mContext.getContentResolver().call(WeatherContract.ChangeEntry.CONTENT_URI,
+                WeatherContract.METHOD_GET_CHANGE_VERSION, null, null)
+                .getLong(WeatherContract.KEY_VERSION);
+    }
+
+    /*
+        This test checks that rewriting a day, through any of the provider's write paths,
+        updates its row in place instead of giving it a new _ID.
+     */
+    public void testUpsertKeepsRowIds() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] forecast = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, forecast);
+        long[] ids = getWeatherIds();
+        assertEquals(forecast.length, ids.length);
+
+        Uri insertUri = mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, forecast[0]);
+        assertEquals("Error: Re-inserting a day gave it a new id",
+                ids[0], ContentUris.parseId(insertUri));
+
+        for (ContentValues value : forecast) {
+            value.put(WeatherEntry.COLUMN_SHORT_DESC, "Comets");
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, forecast);
+        MoreAsserts.assertEquals("Error: Bulk insert gave existing days new ids",
+                ids, getWeatherIds());
+
+        mContext.getContentResolver().bulkInsert(WeatherEntry.REFRESH_URI, forecast);
+        MoreAsserts.assertEquals("Error: Refresh gave existing days new ids",
+                ids, getWeatherIds());
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_SHORT_DESC}, null, null, null);
+        while (cursor.moveToNext()) {
+            assertEquals("Error: Upsert did not update the row", "Comets", cursor.getString(0));
+        }
+        cursor.close();
+    }
+
+    private long[] getWeatherIds() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return ids;
+    }
 }
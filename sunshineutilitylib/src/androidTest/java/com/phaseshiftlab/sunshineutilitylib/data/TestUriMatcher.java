@@ -37,8 +37,16 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_LOCATION_DIR = WeatherContract.WeatherEntry.buildWeatherLocation(LOCATION_QUERY);
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
+    // content://com.phaseshiftlab.sunshine.app/weather_refresh"
+    private static final Uri TEST_WEATHER_REFRESH_DIR = WeatherContract.WeatherEntry.REFRESH_URI;
     // content://com.phaseshiftlab.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    private static final Uri TEST_ARCHIVE_WITH_LOCATION_DIR = WeatherContract.ArchiveEntry.buildArchiveLocationWithRange(LOCATION_QUERY, TEST_DATE, TEST_DATE);
+    private static final Uri TEST_ROLLUP_WITH_LOCATION_AND_PERIOD_DIR = WeatherContract.RollupEntry.buildRollupLocationWithRange(LOCATION_QUERY, WeatherContract.RollupEntry.PERIOD_WEEK, TEST_DATE, TEST_DATE);
+    private static final Uri TEST_ROLLUP_WITH_LOCATION_PERIOD_AND_DATE_ITEM = WeatherContract.RollupEntry.buildRollupLocationWithDate(LOCATION_QUERY, WeatherContract.RollupEntry.PERIOD_MONTH, TEST_DATE);
+    // content://com.phaseshiftlab.sunshine.app/changes?since=..."
+    private static final Uri TEST_CHANGES_DIR = WeatherContract.ChangeEntry.buildChangesSince(TEST_LOCATION_ID);
+    private static final Uri TEST_CHANGES_WITH_LOCATION_DIR = WeatherContract.ChangeEntry.buildChangesForLocationSince(LOCATION_QUERY, TEST_LOCATION_ID);
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -54,7 +62,19 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_DIR), WeatherProvider.WEATHER_WITH_LOCATION);
         assertEquals("Error: The WEATHER WITH LOCATION AND DATE URI was matched incorrectly.",
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
+        assertEquals("Error: The WEATHER REFRESH URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_REFRESH_DIR), WeatherProvider.WEATHER_REFRESH);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The ARCHIVE WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_ARCHIVE_WITH_LOCATION_DIR), WeatherProvider.ARCHIVE_WITH_LOCATION);
+        assertEquals("Error: The ROLLUP WITH LOCATION AND PERIOD URI was matched incorrectly.",
+                testMatcher.match(TEST_ROLLUP_WITH_LOCATION_AND_PERIOD_DIR), WeatherProvider.ROLLUP_WITH_LOCATION_AND_PERIOD);
+        assertEquals("Error: The ROLLUP WITH LOCATION, PERIOD AND DATE URI was matched incorrectly.",
+                testMatcher.match(TEST_ROLLUP_WITH_LOCATION_PERIOD_AND_DATE_ITEM), WeatherProvider.ROLLUP_WITH_LOCATION_PERIOD_AND_DATE);
+        assertEquals("Error: The CHANGES URI was matched incorrectly.",
+                testMatcher.match(TEST_CHANGES_DIR), WeatherProvider.CHANGES);
+        assertEquals("Error: The CHANGES WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_CHANGES_WITH_LOCATION_DIR), WeatherProvider.CHANGES_WITH_LOCATION);
     }
 }
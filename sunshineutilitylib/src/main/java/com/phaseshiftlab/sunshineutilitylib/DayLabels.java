@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phaseshiftlab.sunshineutilitylib;
+
+import android.content.Context;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+
+/**
+ * The day labels behind {@link Utility#getFriendlyDayString}, {@link Utility#getDayName},
+ * {@link Utility#getFormattedMonthDay} and {@link Utility#getFullFriendlyDayString}.
+ *
+ * Labels for the days around today, which are the only ones the forecast shows, are formatted
+ * once into an immutable table keyed by Julian day.  The table is replaced when the day, the
+ * default locale or the default time zone changes, so it is safe to share between the main
+ * thread and widget binder threads.  Days outside the table are formatted on each call.
+ */
+public final class DayLabels {
+
+    // Yesterday, so rows from just before midnight still hit, through the last forecast day
+    private static final int FIRST_DAY_OFFSET = -1;
+    private static final int DAY_COUNT = 16;
+
+    private static volatile Table sTable;
+
+    private DayLabels() {
+    }
+
+    public static String getFriendlyDayString(Context context, long dateInMillis, boolean displayLongToday) {
+        Labels labels = getLabels(context, dateInMillis);
+        return displayLongToday ? labels.friendlyLongToday : labels.friendly;
+    }
+
+    public static String getFullFriendlyDayString(Context context, long dateInMillis) {
+        return getLabels(context, dateInMillis).fullFriendly;
+    }
+
+    public static String getDayName(Context context, long dateInMillis) {
+        return getLabels(context, dateInMillis).dayName;
+    }
+
+    public static String getFormattedMonthDay(Context context, long dateInMillis) {
+        return getLabels(context, dateInMillis).monthDay;
+    }
+
+    /**
+     * Drops the table so the next call formats the labels again.  The day, locale and time
+     * zone are checked on every call anyway, but the time zone is only looked up again once a
+     * minute.  ForecastFragment calls this on ACTION_LOCALE_CHANGED and ACTION_TIMEZONE_CHANGED
+     * so the change shows straight away.
+     */
+    public static void invalidate() {
+        JulianDays.onTimeZoneChanged();
+        sTable = null;
+    }
+
+    private static Labels getLabels(Context context, long dateInMillis) {
+        int julianDay = JulianDays.getJulianDay(dateInMillis);
+        int currentJulianDay = JulianDays.getCurrentJulianDay();
+        Locale locale = Locale.getDefault();
+        String timeZoneId = JulianDays.getTimeZone().getID();
+
+        Table table = sTable;
+        if (table == null || !table.isFor(currentJulianDay, locale, timeZoneId)) {
+            // Two threads racing here both build an equivalent table, which is harmless
+            table = new Table(context, currentJulianDay, locale, timeZoneId);
+            sTable = table;
+        }
+
+        int index = julianDay - table.firstJulianDay;
+        if (index >= 0 && index < DAY_COUNT) {
+            return table.labels[index];
+        }
+        return new Labels(context, julianDay, currentJulianDay, new Formats());
+    }
+
+    private static final class Table {
+        final int currentJulianDay;
+        final int firstJulianDay;
+        final Locale locale;
+        final String timeZoneId;
+        final Labels[] labels = new Labels[DAY_COUNT];
+
+        Table(Context context, int currentJulianDay, Locale locale, String timeZoneId) {
+            this.currentJulianDay = currentJulianDay;
+            this.firstJulianDay = currentJulianDay + FIRST_DAY_OFFSET;
+            this.locale = locale;
+            this.timeZoneId = timeZoneId;
+            Formats formats = new Formats();
+            for (int i = 0; i < DAY_COUNT; i++) {
+                labels[i] = new Labels(context, firstJulianDay + i, currentJulianDay, formats);
+            }
+        }
+
+        boolean isFor(int currentJulianDay, Locale locale, String timeZoneId) {
+            return this.currentJulianDay == currentJulianDay
+                    && this.locale.equals(locale)
+                    && this.timeZoneId.equals(timeZoneId);
+        }
+    }
+
+    // SimpleDateFormat isn't thread safe, so each table (or uncached day) gets its own
+    private static final class Formats {
+        final SimpleDateFormat shortenedDate = new SimpleDateFormat("EEE MMM dd");
+        final SimpleDateFormat dayOfWeek = new SimpleDateFormat("EEEE");
+        final SimpleDateFormat monthDay = new SimpleDateFormat("MMMM dd");
+    }
+
+    private static final class Labels {
+        final String dayName;
+        final String monthDay;
+        final String friendly;
+        final String friendlyLongToday;
+        final String fullFriendly;
+
+        Labels(Context context, int julianDay, int currentJulianDay, Formats formats) {
+            long dateInMillis = JulianDays.getStartOfJulianDay(julianDay);
+
+            // "Today", "Tomorrow", or just the day of the week (e.g "Wednesday")
+            if (julianDay == currentJulianDay) {
+                dayName = context.getString(R.string.today);
+            } else if (julianDay == currentJulianDay + 1) {
+                dayName = context.getString(R.string.tomorrow);
+            } else {
+                dayName = formats.dayOfWeek.format(dateInMillis);
+            }
+
+            // "December 6"
+            monthDay = formats.monthDay.format(dateInMillis);
+
+            // The day string for forecast uses the following logic:
+            // For today: "Today, June 8" (if asked for the long form)
+            // For tomorrow:  "Tomorrow"
+            // For the next 5 days: "Wednesday" (just the day name)
+            // For all days after that: "Mon Jun 8"
+            if (julianDay < currentJulianDay + 7) {
+                friendly = dayName;
+            } else {
+                friendly = formats.shortenedDate.format(dateInMillis);
+            }
+
+            fullFriendly = String.format(context.getString(
+                    R.string.format_full_friendly_date, dayName, monthDay));
+            friendlyLongToday = julianDay == currentJulianDay ? fullFriendly : friendly;
+        }
+    }
+}
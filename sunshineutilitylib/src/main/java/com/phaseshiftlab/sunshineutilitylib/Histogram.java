@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phaseshiftlab.sunshineutilitylib;
+
+import java.io.PrintWriter;
+
+/**
+ * A histogram of non-negative values with power of two buckets, which is coarse but costs a
+ * fixed 64 longs no matter how many values are recorded.  Not thread safe.
+ */
+public final class Histogram {
+    // Bucket 0 holds zero; bucket i > 0 holds [2^(i-1), 2^i)
+    private final long[] mBuckets = new long[Long.SIZE];
+    private long mCount;
+    private long mSum;
+    private long mMax;
+
+    public void add(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mBuckets[Long.SIZE - Long.numberOfLeadingZeros(value)]++;
+        mCount++;
+        mSum += value;
+        mMax = Math.max(mMax, value);
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the upper bound of the bucket holding the given percentile.
+     */
+    public long getPercentile(int percentile) {
+        long rank = (mCount * percentile + 99) / 100;
+        long seen = 0;
+        for (int bucket = 0; bucket < mBuckets.length; bucket++) {
+            seen += mBuckets[bucket];
+            if (seen >= rank && seen > 0) {
+                return Math.min(getUpperBound(bucket), mMax);
+            }
+        }
+        return mMax;
+    }
+
+    private static long getUpperBound(int bucket) {
+        return bucket == 0 ? 0 : (1L << bucket) - 1;
+    }
+
+    public void dump(PrintWriter writer) {
+        writer.print("count=" + mCount);
+        writer.print(" mean=" + (mCount == 0 ? 0 : mSum / mCount));
+        writer.print(" p50<=" + getPercentile(50));
+        writer.print(" p90<=" + getPercentile(90));
+        writer.print(" p99<=" + getPercentile(99));
+        writer.print(" max=" + mMax);
+        writer.print(" buckets=[");
+        boolean first = true;
+        for (int bucket = 0; bucket < mBuckets.length; bucket++) {
+            if (mBuckets[bucket] == 0) {
+                continue;
+            }
+            if (!first) {
+                writer.print(", ");
+            }
+            first = false;
+            writer.print("<=" + getUpperBound(bucket) + ":" + mBuckets[bucket]);
+        }
+        writer.print("]");
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phaseshiftlab.sunshineutilitylib;
+
+import android.os.SystemClock;
+
+import java.util.TimeZone;
+
+/**
+ * Julian day arithmetic on plain longs, as a drop-in for the {@link android.text.format.Time}
+ * idioms used across Sunshine ({@code Time.getJulianDay} and {@code Time.setJulianDay}).
+ *
+ * Unlike Time, nothing here allocates: the default time zone is looked up at most once every
+ * {@link #TIME_ZONE_CHECK_INTERVAL_MILLIS} and reused in between.  Call
+ * {@link #onTimeZoneChanged()} from an ACTION_TIMEZONE_CHANGED receiver to pick up a change
+ * straight away.
+ */
+public final class JulianDays {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    // Julian day of 1970-01-01, same as Time.EPOCH_JULIAN_DAY
+    private static final int EPOCH_JULIAN_DAY = 2440588;
+
+    static final long TIME_ZONE_CHECK_INTERVAL_MILLIS = 60 * 1000;
+
+    private static volatile CachedTimeZone sTimeZone;
+
+    private JulianDays() {
+    }
+
+    /**
+     * @return the Julian day, in the default time zone, that the given instant falls on.
+     */
+    public static int getJulianDay(long millis) {
+        TimeZone timeZone = getTimeZone();
+        return (int) ((millis + timeZone.getOffset(millis)) / DAY_IN_MILLIS) + EPOCH_JULIAN_DAY;
+    }
+
+    /**
+     * @return today's Julian day in the default time zone.
+     */
+    public static int getCurrentJulianDay() {
+        return getJulianDay(System.currentTimeMillis());
+    }
+
+    /**
+     * @return the instant at which the given Julian day starts in the default time zone; the
+     * same value {@code Time.setJulianDay} returns.
+     */
+    public static long getStartOfJulianDay(int julianDay) {
+        TimeZone timeZone = getTimeZone();
+        long utcMidnight = (julianDay - EPOCH_JULIAN_DAY) * DAY_IN_MILLIS;
+        // The offset at local midnight, which is what to subtract from UTC midnight
+        return utcMidnight - timeZone.getOffset(utcMidnight - timeZone.getOffset(utcMidnight));
+    }
+
+    /**
+     * @return the start of the day the given instant falls on.  This is how every date stored
+     * in the weather database is normalized.
+     */
+    public static long normalizeDate(long millis) {
+        return getStartOfJulianDay(getJulianDay(millis));
+    }
+
+    /**
+     * Drops the cached time zone so the next call reads the default again.
+     */
+    public static void onTimeZoneChanged() {
+        sTimeZone = null;
+    }
+
+    static TimeZone getTimeZone() {
+        CachedTimeZone cached = sTimeZone;
+        long now = SystemClock.elapsedRealtime();
+        if (cached == null || now - cached.checkedAt >= TIME_ZONE_CHECK_INTERVAL_MILLIS) {
+            // TimeZone.getDefault() hands out a fresh copy each time, hence the caching
+            cached = new CachedTimeZone(TimeZone.getDefault(), now);
+            sTimeZone = cached;
+        }
+        return cached.timeZone;
+    }
+
+    private static final class CachedTimeZone {
+        final TimeZone timeZone;
+        final long checkedAt;
+
+        CachedTimeZone(TimeZone timeZone, long checkedAt) {
+            this.timeZone = timeZone;
+            this.checkedAt = checkedAt;
+        }
+    }
+}
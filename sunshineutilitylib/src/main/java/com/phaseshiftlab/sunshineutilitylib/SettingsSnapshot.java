@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phaseshiftlab.sunshineutilitylib;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * An immutable copy of the settings Sunshine reads while showing and syncing weather, so that
+ * {@link Utility} doesn't look up the SharedPreferences and the key strings on every call.
+ *
+ * The copy is thrown away whenever the default SharedPreferences change, and rebuilt on the
+ * next read.  Change listeners run on the main thread some time after the write, so code that
+ * writes one of these settings and reads it straight back should call {@link #invalidate()}
+ * itself.
+ */
+public final class SettingsSnapshot {
+
+    private static final Object sLock = new Object();
+    private static volatile SettingsSnapshot sCurrent;
+
+    // SharedPreferences only keeps a weak reference to its listeners
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener;
+
+    private final String mLocationSetting;
+    private final boolean mMetric;
+    private final String mArtPack;
+    private final boolean mLocalGraphics;
+    private final boolean mLocationLatLonAvailable;
+    private final float mLocationLatitude;
+    private final float mLocationLongitude;
+    private final @Utility.LocationStatus int mLocationStatus;
+
+    @SuppressWarnings("ResourceType")
+    private SettingsSnapshot(Context context, SharedPreferences prefs) {
+        mLocationSetting = prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+
+        String metric = context.getString(R.string.pref_units_metric);
+        mMetric = prefs.getString(context.getString(R.string.pref_units_key), metric)
+                .equals(metric);
+
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        mArtPack = prefs.getString(context.getString(R.string.pref_art_pack_key), sunshineArtPack);
+        mLocalGraphics = mArtPack.equals(sunshineArtPack);
+
+        String latitudeKey = context.getString(R.string.pref_location_latitude);
+        String longitudeKey = context.getString(R.string.pref_location_longitude);
+        mLocationLatLonAvailable = prefs.contains(latitudeKey) && prefs.contains(longitudeKey);
+        mLocationLatitude = prefs.getFloat(latitudeKey, Utility.DEFAULT_LATLONG);
+        mLocationLongitude = prefs.getFloat(longitudeKey, Utility.DEFAULT_LATLONG);
+
+        mLocationStatus = prefs.getInt(context.getString(R.string.pref_location_status_key),
+                Utility.LOCATION_STATUS_UNKNOWN);
+    }
+
+    /**
+     * @param context Context used to get the SharedPreferences
+     * @return the current settings.  Cheap enough to call per row.
+     */
+    public static SettingsSnapshot get(Context context) {
+        SettingsSnapshot current = sCurrent;
+        if (current != null) return current;
+
+        // Holding the lock while reading means an invalidate() that follows a write can't be
+        // overtaken by a rebuild that read the old value.
+        synchronized (sLock) {
+            if (sCurrent == null) {
+                final Context appContext = context.getApplicationContext();
+                SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(appContext);
+                if (sListener == null) {
+                    sListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                        @Override
+                        public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+                                                              String key) {
+                            invalidate();
+                        }
+                    };
+                    prefs.registerOnSharedPreferenceChangeListener(sListener);
+                }
+                sCurrent = new SettingsSnapshot(appContext, prefs);
+            }
+            return sCurrent;
+        }
+    }
+
+    /**
+     * Drops the current snapshot, so the next {@link #get(Context)} reads the preferences again.
+     */
+    public static void invalidate() {
+        synchronized (sLock) {
+            sCurrent = null;
+        }
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    public boolean isMetric() {
+        return mMetric;
+    }
+
+    /**
+     * @return the art pack URL format, which is also the value of the art pack preference.
+     */
+    public String getArtPack() {
+        return mArtPack;
+    }
+
+    public boolean usingLocalGraphics() {
+        return mLocalGraphics;
+    }
+
+    public boolean isLocationLatLonAvailable() {
+        return mLocationLatLonAvailable;
+    }
+
+    public float getLocationLatitude() {
+        return mLocationLatitude;
+    }
+
+    public float getLocationLongitude() {
+        return mLocationLongitude;
+    }
+
+    public @Utility.LocationStatus int getLocationStatus() {
+        return mLocationStatus;
+    }
+}
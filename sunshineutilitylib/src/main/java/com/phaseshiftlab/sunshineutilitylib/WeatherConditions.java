@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phaseshiftlab.sunshineutilitylib;
+
+import android.content.Context;
+
+import java.util.Locale;
+
+/**
+ * Lookup tables for OpenWeatherMap condition codes, behind Utility's
+ * {@code get*ForWeatherCondition} helpers.
+ *
+ * Codes 0-999 index straight into dense tables built once, so a lookup is an array read
+ * rather than a walk down a chain of range checks.  Condition strings are cached for the
+ * current locale and art URLs for the current art pack.
+ *
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+public final class WeatherConditions {
+
+    private static final int CODE_COUNT = 1000;
+
+    // The artwork groups conditions share.  Dust uses the storm art, but has its own image.
+    private static final int GROUP_NONE = 0;
+    private static final int GROUP_STORM = 1;
+    private static final int GROUP_LIGHT_RAIN = 2;
+    private static final int GROUP_RAIN = 3;
+    private static final int GROUP_SNOW = 4;
+    private static final int GROUP_FOG = 5;
+    private static final int GROUP_DUST = 6;
+    private static final int GROUP_CLEAR = 7;
+    private static final int GROUP_LIGHT_CLOUDS = 8;
+    private static final int GROUP_CLOUDS = 9;
+
+    // Indexed by group
+    private static final int[] ICONS = {
+            -1,
+            R.drawable.ic_storm,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_snow,
+            R.drawable.ic_fog,
+            R.drawable.ic_storm,
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy
+    };
+    private static final int[] ARTS = {
+            -1,
+            R.drawable.art_storm,
+            R.drawable.art_light_rain,
+            R.drawable.art_rain,
+            R.drawable.art_snow,
+            R.drawable.art_fog,
+            R.drawable.art_storm,
+            R.drawable.art_clear,
+            R.drawable.art_light_clouds,
+            R.drawable.art_clouds
+    };
+    // What the art pack URL format gets filled in with
+    private static final String[] ART_NAMES = {
+            null,
+            "storm",
+            "light_rain",
+            "rain",
+            "snow",
+            "fog",
+            "storm",
+            "clear",
+            "light_clouds",
+            "clouds"
+    };
+    // The Muzei images
+    private static final String[] IMAGE_URLS = {
+            null,
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg"
+    };
+
+    // Indexed by condition code
+    private static final byte[] sGroups = new byte[CODE_COUNT];
+    private static final int[] sStringIds = new int[CODE_COUNT];
+
+    static {
+        setGroup(200, 232, GROUP_STORM);
+        setGroup(300, 321, GROUP_LIGHT_RAIN);
+        setGroup(500, 504, GROUP_RAIN);
+        setGroup(511, 511, GROUP_SNOW);
+        setGroup(520, 531, GROUP_RAIN);
+        setGroup(600, 622, GROUP_SNOW);
+        // 761 (dust) falls in here too, and has always shown as fog
+        setGroup(701, 761, GROUP_FOG);
+        setGroup(781, 781, GROUP_DUST);
+        setGroup(800, 800, GROUP_CLEAR);
+        setGroup(801, 801, GROUP_LIGHT_CLOUDS);
+        setGroup(802, 804, GROUP_CLOUDS);
+
+        for (int code = 200; code <= 232; code++) sStringIds[code] = R.string.condition_2xx;
+        for (int code = 300; code <= 321; code++) sStringIds[code] = R.string.condition_3xx;
+        sStringIds[500] = R.string.condition_500;
+        sStringIds[501] = R.string.condition_501;
+        sStringIds[502] = R.string.condition_502;
+        sStringIds[503] = R.string.condition_503;
+        sStringIds[504] = R.string.condition_504;
+        sStringIds[511] = R.string.condition_511;
+        sStringIds[520] = R.string.condition_520;
+        sStringIds[531] = R.string.condition_531;
+        sStringIds[600] = R.string.condition_600;
+        sStringIds[601] = R.string.condition_601;
+        sStringIds[602] = R.string.condition_602;
+        sStringIds[611] = R.string.condition_611;
+        sStringIds[612] = R.string.condition_612;
+        sStringIds[615] = R.string.condition_615;
+        sStringIds[616] = R.string.condition_616;
+        sStringIds[620] = R.string.condition_620;
+        sStringIds[621] = R.string.condition_621;
+        sStringIds[622] = R.string.condition_622;
+        sStringIds[701] = R.string.condition_701;
+        sStringIds[711] = R.string.condition_711;
+        sStringIds[721] = R.string.condition_721;
+        sStringIds[731] = R.string.condition_731;
+        sStringIds[741] = R.string.condition_741;
+        sStringIds[751] = R.string.condition_751;
+        sStringIds[761] = R.string.condition_761;
+        sStringIds[762] = R.string.condition_762;
+        sStringIds[771] = R.string.condition_771;
+        sStringIds[781] = R.string.condition_781;
+        sStringIds[800] = R.string.condition_800;
+        sStringIds[801] = R.string.condition_801;
+        sStringIds[802] = R.string.condition_802;
+        sStringIds[803] = R.string.condition_803;
+        sStringIds[804] = R.string.condition_804;
+        sStringIds[900] = R.string.condition_900;
+        sStringIds[901] = R.string.condition_901;
+        sStringIds[902] = R.string.condition_902;
+        sStringIds[903] = R.string.condition_903;
+        sStringIds[904] = R.string.condition_904;
+        sStringIds[905] = R.string.condition_905;
+        sStringIds[906] = R.string.condition_906;
+        sStringIds[951] = R.string.condition_951;
+        sStringIds[952] = R.string.condition_952;
+        sStringIds[953] = R.string.condition_953;
+        sStringIds[954] = R.string.condition_954;
+        sStringIds[955] = R.string.condition_955;
+        sStringIds[956] = R.string.condition_956;
+        sStringIds[957] = R.string.condition_957;
+        sStringIds[958] = R.string.condition_958;
+        sStringIds[959] = R.string.condition_959;
+        sStringIds[960] = R.string.condition_960;
+        sStringIds[961] = R.string.condition_961;
+        sStringIds[962] = R.string.condition_962;
+    }
+
+    private static volatile StringCache sStrings;
+    private static volatile ArtUrlCache sArtUrls;
+
+    private WeatherConditions() {
+    }
+
+    private static void setGroup(int firstCode, int lastCode, int group) {
+        for (int code = firstCode; code <= lastCode; code++) {
+            sGroups[code] = (byte) group;
+        }
+    }
+
+    private static int getGroup(int weatherId) {
+        return weatherId >= 0 && weatherId < CODE_COUNT ? sGroups[weatherId] : GROUP_NONE;
+    }
+
+    /**
+     * @return resource id for the condition's icon. -1 if no relation is found.
+     */
+    public static int getIconResource(int weatherId) {
+        return ICONS[getGroup(weatherId)];
+    }
+
+    /**
+     * @return resource id for the condition's art. -1 if no relation is found.
+     */
+    public static int getArtResource(int weatherId) {
+        return ARTS[getGroup(weatherId)];
+    }
+
+    /**
+     * @return a URL for the condition's Muzei image, or null if no mapping is found.
+     */
+    public static String getImageUrl(int weatherId) {
+        return IMAGE_URLS[getGroup(weatherId)];
+    }
+
+    /**
+     * @return the condition's art in the given art pack (a URL format with one %s for the
+     * art name), or null if no relation is found.
+     */
+    public static String getArtUrl(String artPack, int weatherId) {
+        int group = getGroup(weatherId);
+        if (group == GROUP_NONE) return null;
+
+        ArtUrlCache cache = sArtUrls;
+        if (cache == null || !cache.artPack.equals(artPack)) {
+            cache = new ArtUrlCache(artPack);
+            sArtUrls = cache;
+        }
+        return cache.urls[group];
+    }
+
+    /**
+     * @return the condition's description in the context's locale.  Unknown codes get the
+     * "unknown condition" string with the code filled in.
+     */
+    public static String getString(Context context, int weatherId) {
+        if (weatherId < 0 || weatherId >= CODE_COUNT) {
+            return context.getString(R.string.condition_unknown, weatherId);
+        }
+
+        Locale locale = context.getResources().getConfiguration().locale;
+        StringCache cache = sStrings;
+        if (cache == null || !cache.locale.equals(locale)) {
+            cache = new StringCache(locale);
+            sStrings = cache;
+        }
+
+        // Filled in as conditions are seen.  Two threads can race to fill the same entry,
+        // but they write the same immutable string, so either one winning is fine.
+        String string = cache.strings[weatherId];
+        if (string == null) {
+            int stringId = sStringIds[weatherId];
+            string = stringId == 0
+                    ? context.getString(R.string.condition_unknown, weatherId)
+                    : context.getString(stringId);
+            cache.strings[weatherId] = string;
+        }
+        return string;
+    }
+
+    private static final class StringCache {
+        final Locale locale;
+        final String[] strings = new String[CODE_COUNT];
+
+        StringCache(Locale locale) {
+            this.locale = locale;
+        }
+    }
+
+    private static final class ArtUrlCache {
+        final String artPack;
+        final String[] urls = new String[ART_NAMES.length];
+
+        ArtUrlCache(String artPack) {
+            this.artPack = artPack;
+            for (int group = GROUP_NONE + 1; group < ART_NAMES.length; group++) {
+                urls[group] = String.format(Locale.US, artPack, ART_NAMES[group]);
+            }
+        }
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phaseshiftlab.sunshineutilitylib;
+
+import android.content.Context;
+
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Formats temperatures, wind, pressure and humidity exactly as the {@code format_*} string
+ * resources do through String.format, without going through Formatter.
+ *
+ * The resource patterns are parsed once per locale into {@link Template}s, and the append
+ * methods write straight into a caller's StringBuilder without allocating.  The String
+ * returning methods reuse a per-thread builder, so they only allocate the result.
+ *
+ * When a locale's patterns use anything the templates don't cover, or don't come out the same
+ * as String.format for a set of probe values, that locale falls back to String.format.
+ */
+public final class WeatherFormatter {
+
+    private static final int ARG_NUMBER = 0;
+    private static final int ARG_TEXT = 1;
+
+    // Beyond this a double can't hold a fractional part to round, so leave it to Formatter
+    private static final double MAX_ROUNDED = 1e15;
+
+    private static final float KMH_TO_MPH = .621371192237334f;
+
+    // Directions for each 22.5 degree sector, starting at north
+    private static final String[] COMPASS_SECTORS = {
+            "N", "NE", "NE", "E", "E", "SE", "SE", "S",
+            "S", "SW", "SW", "W", "W", "NW", "NW", "N"
+    };
+
+    // Values the templates are checked against String.format with
+    private static final double[] PROBES = {
+            -40.5, -12.5, -1.5, -0.5, -0.3, -0.0, 0, 0.4999999999999999, 0.5, 1.5, 2.5,
+            21.49, 23.5, 99.5, 1013.25, 123456.5
+    };
+
+    private static volatile WeatherFormatter sCurrent;
+
+    private static final ThreadLocal<StringBuilder> sBuilder = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(32);
+        }
+    };
+
+    private final Locale mResourceLocale;
+    private final Locale mFormatLocale;
+    private final char mZeroDigit;
+
+    // The raw patterns, for the fallback
+    private final String mTemperaturePattern;
+    private final String mWindKmhPattern;
+    private final String mWindMphPattern;
+    private final String mPressurePattern;
+    private final String mHumidityPattern;
+
+    // null where the fallback is in use
+    private final Template mTemperature;
+    private final Template mWindKmh;
+    private final Template mWindMph;
+    private final Template mPressure;
+    private final Template mHumidity;
+
+    private WeatherFormatter(Context context, Locale resourceLocale, Locale formatLocale) {
+        mResourceLocale = resourceLocale;
+        mFormatLocale = formatLocale;
+        mZeroDigit = DecimalFormatSymbols.getInstance(formatLocale).getZeroDigit();
+
+        mTemperaturePattern = context.getString(R.string.format_temperature);
+        mWindKmhPattern = context.getString(R.string.format_wind_kmh);
+        mWindMphPattern = context.getString(R.string.format_wind_mph);
+        mPressurePattern = context.getString(R.string.format_pressure);
+        mHumidityPattern = context.getString(R.string.format_humidity);
+
+        mTemperature = checked(Template.parse(mTemperaturePattern), mTemperaturePattern);
+        mWindKmh = checked(Template.parse(mWindKmhPattern), mWindKmhPattern);
+        mWindMph = checked(Template.parse(mWindMphPattern), mWindMphPattern);
+        mPressure = checked(Template.parse(mPressurePattern), mPressurePattern);
+        mHumidity = checked(Template.parse(mHumidityPattern), mHumidityPattern);
+    }
+
+    /**
+     * @return the formatter for the context's current locale.
+     */
+    public static WeatherFormatter get(Context context) {
+        Locale resourceLocale = context.getResources().getConfiguration().locale;
+        Locale formatLocale = Locale.getDefault();
+        WeatherFormatter current = sCurrent;
+        if (current == null
+                || !current.mResourceLocale.equals(resourceLocale)
+                || !current.mFormatLocale.equals(formatLocale)) {
+            // Two threads racing here both build an equivalent formatter, which is harmless
+            current = new WeatherFormatter(context, resourceLocale, formatLocale);
+            sCurrent = current;
+        }
+        return current;
+    }
+
+    private Template checked(Template template, String pattern) {
+        if (template == null) return null;
+        StringBuilder out = new StringBuilder();
+        for (double probe : PROBES) {
+            // Temperatures are doubles, the rest floats, so check both
+            out.setLength(0);
+            template.append(out, probe, "NE", mZeroDigit);
+            if (!String.format(mFormatLocale, pattern, probe, "NE").contentEquals(out)) {
+                return null;
+            }
+            out.setLength(0);
+            template.append(out, (float) probe, "NE", mZeroDigit);
+            if (!String.format(mFormatLocale, pattern, (float) probe, "NE").contentEquals(out)) {
+                return null;
+            }
+        }
+        return template;
+    }
+
+    /**
+     * Appends a temperature stored in Celsius, converted to Fahrenheit if need be.
+     */
+    public void appendTemperature(StringBuilder out, double temperature, boolean metric) {
+        if (!metric) {
+            temperature = (temperature * 1.8) + 32;
+        }
+        if (mTemperature == null || !Template.canRound(temperature)) {
+            out.append(String.format(mFormatLocale, mTemperaturePattern, temperature));
+        } else {
+            mTemperature.append(out, temperature, null, mZeroDigit);
+        }
+    }
+
+    /**
+     * Appends a wind speed stored in km/h, converted to mph if need be, and the compass
+     * direction of the given degrees.
+     */
+    public void appendWind(StringBuilder out, float windSpeed, float degrees, boolean metric) {
+        Template template;
+        String pattern;
+        if (metric) {
+            template = mWindKmh;
+            pattern = mWindKmhPattern;
+        } else {
+            template = mWindMph;
+            pattern = mWindMphPattern;
+            windSpeed = KMH_TO_MPH * windSpeed;
+        }
+        String direction = getCompassDirection(degrees);
+        if (template == null || !Template.canRound(windSpeed)) {
+            out.append(String.format(mFormatLocale, pattern, windSpeed, direction));
+        } else {
+            template.append(out, windSpeed, direction, mZeroDigit);
+        }
+    }
+
+    public void appendPressure(StringBuilder out, float pressure) {
+        appendNumber(out, mPressure, mPressurePattern, pressure);
+    }
+
+    public void appendHumidity(StringBuilder out, float humidity) {
+        appendNumber(out, mHumidity, mHumidityPattern, humidity);
+    }
+
+    private void appendNumber(StringBuilder out, Template template, String pattern, float value) {
+        if (template == null || !Template.canRound(value)) {
+            out.append(String.format(mFormatLocale, pattern, value));
+        } else {
+            template.append(out, value, null, mZeroDigit);
+        }
+    }
+
+    public String formatTemperature(double temperature, boolean metric) {
+        StringBuilder out = obtainBuilder();
+        appendTemperature(out, temperature, metric);
+        return out.toString();
+    }
+
+    public String formatWind(float windSpeed, float degrees, boolean metric) {
+        StringBuilder out = obtainBuilder();
+        appendWind(out, windSpeed, degrees, metric);
+        return out.toString();
+    }
+
+    public String formatPressure(float pressure) {
+        StringBuilder out = obtainBuilder();
+        appendPressure(out, pressure);
+        return out.toString();
+    }
+
+    public String formatHumidity(float humidity) {
+        StringBuilder out = obtainBuilder();
+        appendHumidity(out, humidity);
+        return out.toString();
+    }
+
+    private static StringBuilder obtainBuilder() {
+        StringBuilder out = sBuilder.get();
+        out.setLength(0);
+        return out;
+    }
+
+    /**
+     * @return the compass direction (e.g NW) for a wind direction in degrees, or "Unknown".
+     */
+    public static String getCompassDirection(float degrees) {
+        if (degrees != degrees) return "Unknown";
+        // Anything out of range has always come out as north
+        if (degrees < 0 || degrees >= 360) return "N";
+        return COMPASS_SECTORS[(int) (degrees / 22.5)];
+    }
+
+    /**
+     * A format_* pattern split into literal text and its %f / %s placeholders.  Only the
+     * subset of Formatter the resources use is understood: %[n$][width].0f, %[n$]s and %%.
+     */
+    static final class Template {
+        // literals.length == args.length + 1
+        private final String[] mLiterals;
+        private final int[] mArgs;
+        private final int[] mWidths;
+
+        private Template(String[] literals, int[] args, int[] widths) {
+            mLiterals = literals;
+            mArgs = args;
+            mWidths = widths;
+        }
+
+        static boolean canRound(double value) {
+            return value > -MAX_ROUNDED && value < MAX_ROUNDED;
+        }
+
+        /**
+         * @return the template, or null if the pattern uses anything not understood here.
+         * The number is always argument 1 and the text argument 2.
+         */
+        static Template parse(String pattern) {
+            List<String> literals = new ArrayList<String>();
+            List<int[]> placeholders = new ArrayList<int[]>();
+            StringBuilder literal = new StringBuilder();
+            int nextArg = 1;
+            int length = pattern.length();
+            int i = 0;
+            while (i < length) {
+                char c = pattern.charAt(i++);
+                if (c != '%') {
+                    literal.append(c);
+                    continue;
+                }
+                if (i < length && pattern.charAt(i) == '%') {
+                    literal.append('%');
+                    i++;
+                    continue;
+                }
+
+                // [argument$][width][.precision]conversion, and no flags
+                if (i < length && pattern.charAt(i) == '0') return null;
+                int number = 0;
+                int start = i;
+                while (i < length && Character.isDigit(pattern.charAt(i))) {
+                    number = number * 10 + (pattern.charAt(i++) - '0');
+                }
+                int arg;
+                int width = 0;
+                if (i < length && pattern.charAt(i) == '$' && i > start) {
+                    arg = number;
+                    i++;
+                    if (i < length && pattern.charAt(i) == '0') return null;
+                    while (i < length && Character.isDigit(pattern.charAt(i))) {
+                        width = width * 10 + (pattern.charAt(i++) - '0');
+                    }
+                } else {
+                    arg = nextArg++;
+                    width = number;
+                }
+                int precision = -1;
+                if (i < length && pattern.charAt(i) == '.') {
+                    i++;
+                    precision = 0;
+                    int digits = 0;
+                    while (i < length && Character.isDigit(pattern.charAt(i))) {
+                        precision = precision * 10 + (pattern.charAt(i++) - '0');
+                        digits++;
+                    }
+                    if (digits == 0) return null;
+                }
+                if (i == length) return null;
+                char conversion = pattern.charAt(i++);
+                if (conversion == 'f' && arg == 1 && precision == 0) {
+                    placeholders.add(new int[] {ARG_NUMBER, width});
+                } else if (conversion == 's' && arg == 2 && precision == -1 && width == 0) {
+                    placeholders.add(new int[] {ARG_TEXT, 0});
+                } else {
+                    return null;
+                }
+                literals.add(literal.toString());
+                literal.setLength(0);
+            }
+            literals.add(literal.toString());
+
+            int count = placeholders.size();
+            int[] args = new int[count];
+            int[] widths = new int[count];
+            for (int p = 0; p < count; p++) {
+                args[p] = placeholders.get(p)[0];
+                widths[p] = placeholders.get(p)[1];
+            }
+            return new Template(literals.toArray(new String[count + 1]), args, widths);
+        }
+
+        /**
+         * Appends the pattern with the number rounded half up to a whole number, as %.0f does.
+         * The number must pass {@link #canRound(double)}.
+         */
+        void append(StringBuilder out, double number, String text, char zeroDigit) {
+            out.append(mLiterals[0]);
+            for (int p = 0; p < mArgs.length; p++) {
+                if (mArgs[p] == ARG_NUMBER) {
+                    appendRounded(out, number, mWidths[p], zeroDigit);
+                } else {
+                    out.append(text);
+                }
+                out.append(mLiterals[p + 1]);
+            }
+        }
+
+        private static void appendRounded(StringBuilder out, double value, int width, char zeroDigit) {
+            // Formatter keeps the sign of anything negative, even when it rounds to 0 (and -0.0)
+            boolean negative = value < 0 || (value == 0 && 1 / value < 0);
+            double magnitude = Math.abs(value);
+            long whole = (long) magnitude;
+            // Taking the whole part off a double is exact, so this is an exact half up
+            if (magnitude - whole >= 0.5) {
+                whole++;
+            }
+
+            int digits = 1;
+            long divisor = 1;
+            while (whole / divisor >= 10) {
+                divisor *= 10;
+                digits++;
+            }
+            for (int pad = digits + (negative ? 1 : 0); pad < width; pad++) {
+                out.append(' ');
+            }
+            if (negative) {
+                out.append('-');
+            }
+            for (; divisor > 0; divisor /= 10) {
+                out.append((char) (zeroDigit + (int) ((whole / divisor) % 10)));
+            }
+        }
+    }
+}
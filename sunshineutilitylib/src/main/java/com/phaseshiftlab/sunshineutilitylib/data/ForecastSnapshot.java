@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phaseshiftlab.sunshineutilitylib.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+
+/**
+ * Compact "today plus the next few days" view of a location's forecast.  It is either read
+ * straight out of the snapshot file the provider publishes after every write (see
+ * {@link ForecastSnapshotFile}), or fetched in a single {@link ContentResolver#call} instead of
+ * a query.  Neither sets up a cursor or cursor window.
+ */
+public abstract class ForecastSnapshot {
+
+    // Days returned when the caller doesn't ask for a specific number of them
+    public static final int DEFAULT_DAYS = 1;
+
+    static final String[] SNAPSHOT_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    // these indices must match SNAPSHOT_COLUMNS
+    static final int INDEX_DATE = 0;
+    static final int INDEX_WEATHER_ID = 1;
+    static final int INDEX_MAX_TEMP = 2;
+    static final int INDEX_MIN_TEMP = 3;
+
+    private static final String KEY_DATES = "dates";
+    private static final String KEY_WEATHER_IDS = "weather_ids";
+    private static final String KEY_MAX_TEMPS = "max_temps";
+    private static final String KEY_MIN_TEMPS = "min_temps";
+
+    // Only the two implementations below
+    ForecastSnapshot() {
+    }
+
+    /**
+     * Reads today's forecast and the days after it for a location from the published snapshot
+     * file, going through the provider only if the file is missing, torn or out of date.
+     *
+     * @param context Context whose files directory holds the snapshot files
+     * @param locationSetting the location, as stored in the preferences
+     * @param days how many days to return, today included
+     */
+    public static ForecastSnapshot load(Context context, String locationSetting, int days) {
+        ForecastSnapshot snapshot = ForecastSnapshotFile.open(context, locationSetting, days);
+        if (snapshot == null) {
+            snapshot = query(context.getContentResolver(), locationSetting, days);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Fetches today's forecast and the days after it for a location.
+     *
+     * @param resolver ContentResolver to reach the WeatherProvider through
+     * @param locationSetting the location, as stored in the preferences
+     * @param days how many days to return, today included
+     * @return the snapshot; it has no days if nothing is stored for the location yet.
+     */
+    public static ForecastSnapshot query(ContentResolver resolver, String locationSetting, int days) {
+        Bundle extras = new Bundle();
+        extras.putInt(WeatherContract.KEY_DAYS, days);
+        Bundle result = resolver.call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_GET_FORECAST_SNAPSHOT, locationSetting, extras);
+        return new BundleSnapshot(result);
+    }
+
+    /**
+     * Packs the rows of a cursor over SNAPSHOT_COLUMNS into a Bundle.
+     */
+    static Bundle toBundle(Cursor cursor) {
+        int count = cursor.getCount();
+        long[] dates = new long[count];
+        int[] weatherIds = new int[count];
+        double[] maxTemps = new double[count];
+        double[] minTemps = new double[count];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            dates[i] = cursor.getLong(INDEX_DATE);
+            weatherIds[i] = cursor.getInt(INDEX_WEATHER_ID);
+            maxTemps[i] = cursor.getDouble(INDEX_MAX_TEMP);
+            minTemps[i] = cursor.getDouble(INDEX_MIN_TEMP);
+        }
+
+        Bundle bundle = new Bundle();
+        bundle.putLongArray(KEY_DATES, dates);
+        bundle.putIntArray(KEY_WEATHER_IDS, weatherIds);
+        bundle.putDoubleArray(KEY_MAX_TEMPS, maxTemps);
+        bundle.putDoubleArray(KEY_MIN_TEMPS, minTemps);
+        return bundle;
+    }
+
+    public abstract int getDayCount();
+
+    public abstract long getDate(int day);
+
+    /**
+     * @return the weather condition id; see
+     * {@link com.phaseshiftlab.sunshineutilitylib.Utility#getStringForWeatherCondition} for its
+     * description in the current locale.
+     */
+    public abstract int getWeatherId(int day);
+
+    public abstract double getMaxTemp(int day);
+
+    public abstract double getMinTemp(int day);
+
+    private static final class BundleSnapshot extends ForecastSnapshot {
+        private final long[] mDates;
+        private final int[] mWeatherIds;
+        private final double[] mMaxTemps;
+        private final double[] mMinTemps;
+
+        BundleSnapshot(Bundle bundle) {
+            mDates = bundle.getLongArray(KEY_DATES);
+            mWeatherIds = bundle.getIntArray(KEY_WEATHER_IDS);
+            mMaxTemps = bundle.getDoubleArray(KEY_MAX_TEMPS);
+            mMinTemps = bundle.getDoubleArray(KEY_MIN_TEMPS);
+        }
+
+        @Override
+        public int getDayCount() {
+            return mDates.length;
+        }
+
+        @Override
+        public long getDate(int day) {
+            return mDates[day];
+        }
+
+        @Override
+        public int getWeatherId(int day) {
+            return mWeatherIds[day];
+        }
+
+        @Override
+        public double getMaxTemp(int day) {
+            return mMaxTemps[day];
+        }
+
+        @Override
+        public double getMinTemp(int day) {
+            return mMinTemps[day];
+        }
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phaseshiftlab.sunshineutilitylib.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * Fixed-layout binary copy of a location's upcoming forecast, republished by
+ * {@link WeatherProvider} in the background after writes to that location and read back through
+ * a memory map, with no SQL and no cursor.
+ *
+ * The file is a 32 byte header, one 32 byte record per day and an 8 byte trailer:
+ * <pre>
+ *   header:  int magic, int version, long sequence, long publishedAt, int dayCount, int unused
+ *   record:  long date, int weatherId, int unused, double max, double min
+ * </pre>
+ * Days carry the weather condition id rather than its description, which readers look up in
+ * their own locale.
+ *
+ * A new file is written next to the old one and renamed over it, so readers normally see either
+ * the old or the new file.  The sequence is written at both ends anyway, and a file whose ends
+ * disagree, whose length doesn't match its day count, or whose version is unknown is ignored.
+ *
+ * Each location's file is mapped once and the mapping shared by every reader in the process.
+ * A mapping keeps the contents of the file it was made from after another is renamed over it,
+ * so the provider, which runs in the same process, marks it to be remapped whenever it replaces
+ * or deletes a file.
+ */
+public final class ForecastSnapshotFile extends ForecastSnapshot {
+    private static final String LOG_TAG = ForecastSnapshotFile.class.getSimpleName();
+
+    private static final String DIRECTORY_NAME = "forecast_snapshots";
+    private static final String FILE_SUFFIX = ".snapshot";
+
+    // "SUNS"
+    private static final int MAGIC = 0x53554e53;
+    // Bump whenever the layout below changes; readers ignore files of any other version.
+    static final int FORMAT_VERSION = 2;
+
+    // A full two week forecast, which is what the sync adapter fetches
+    static final int MAX_DAYS = 14;
+
+    private static final int HEADER_SIZE = 32;
+    private static final int HEADER_OFFSET_MAGIC = 0;
+    private static final int HEADER_OFFSET_VERSION = 4;
+    private static final int HEADER_OFFSET_SEQUENCE = 8;
+    private static final int HEADER_OFFSET_DAY_COUNT = 24;
+
+    private static final int RECORD_SIZE = 32;
+    private static final int RECORD_OFFSET_DATE = 0;
+    private static final int RECORD_OFFSET_WEATHER_ID = 8;
+    private static final int RECORD_OFFSET_MAX_TEMP = 16;
+    private static final int RECORD_OFFSET_MIN_TEMP = 24;
+
+    private static final int TRAILER_SIZE = 8;
+
+    // Guards the fields below
+    private static final Object sLock = new Object();
+    private static final HashMap<String, Mapping> sMappings = new HashMap<String, Mapping>();
+    // The files the provider has yet to rewrite since the database last changed
+    private static boolean sAllStale;
+    private static Set<String> sStale = Collections.emptySet();
+
+    private final ByteBuffer mBuffer;
+    // Index of the record for today; earlier records are days that have gone by since publishing
+    private final int mFirstDay;
+    private final int mDayCount;
+
+    private ForecastSnapshotFile(ByteBuffer buffer, int firstDay, int dayCount) {
+        mBuffer = buffer;
+        mFirstDay = firstDay;
+        mDayCount = dayCount;
+    }
+
+    /**
+     * The current mapping of one location's file.
+     */
+    private static final class Mapping {
+        private final File mFile;
+        // Set when the file has been replaced or deleted since it was mapped
+        private volatile boolean mChanged = true;
+        // Null if the file is missing or unusable
+        private ByteBuffer mBuffer;
+
+        Mapping(File file) {
+            mFile = file;
+        }
+
+        synchronized ByteBuffer getBuffer() {
+            if (mChanged) {
+                // Cleared first, so a file replaced while this maps it is mapped again next time
+                mChanged = false;
+                mBuffer = map(mFile);
+            }
+            return mBuffer;
+        }
+    }
+
+    static File getDirectory(Context context) {
+        return new File(context.getFilesDir(), DIRECTORY_NAME);
+    }
+
+    private static String getFileName(String locationSetting) {
+        return Uri.encode(locationSetting) + FILE_SUFFIX;
+    }
+
+    private static int getFileSize(int dayCount) {
+        return HEADER_SIZE + dayCount * RECORD_SIZE + TRAILER_SIZE;
+    }
+
+    /**
+     * Reads the snapshot file for a location, through the mapping shared with earlier reads
+     * unless the file has been replaced since.
+     *
+     * @param days how many days to return at most, today included
+     * @return the snapshot, or null if there is no usable file: it is missing, torn, written in
+     * another format version, older than the database, or holds nothing for today onwards.
+     */
+    public static ForecastSnapshotFile open(Context context, String locationSetting, int days) {
+        Mapping mapping;
+        synchronized (sLock) {
+            if (sAllStale || sStale.contains(locationSetting)) {
+                return null;
+            }
+            mapping = sMappings.get(locationSetting);
+            if (mapping == null) {
+                mapping = new Mapping(new File(getDirectory(context), getFileName(locationSetting)));
+                sMappings.put(locationSetting, mapping);
+            }
+        }
+        ByteBuffer buffer = mapping.getBuffer();
+        if (buffer == null) {
+            return null;
+        }
+
+        // Skip the days that were still upcoming when the file was published but are over now
+        int storedDays = buffer.getInt(HEADER_OFFSET_DAY_COUNT);
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        int firstDay = 0;
+        while (firstDay < storedDays
+                && buffer.getLong(getRecordOffset(firstDay) + RECORD_OFFSET_DATE) < today) {
+            firstDay++;
+        }
+        if (firstDay == storedDays) {
+            // Nothing left that's current; let the provider decide whether that's really so
+            return null;
+        }
+        return new ForecastSnapshotFile(buffer, firstDay, Math.min(days, storedDays - firstDay));
+    }
+
+    /**
+     * @return a read-only mapping of the file, or null if it is missing or unusable.
+     */
+    private static ByteBuffer map(File file) {
+        RandomAccessFile randomAccessFile;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long length = channel.size();
+            if (length < getFileSize(0) || length > getFileSize(MAX_DAYS)) {
+                return null;
+            }
+            // The mapping stays valid after the file is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            return isValid(buffer, (int) length) ? buffer : null;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to map " + file, e);
+            return null;
+        } finally {
+            try {
+                randomAccessFile.close();
+            } catch (IOException e) {
+                // nothing left to read
+            }
+        }
+    }
+
+    private static boolean isValid(ByteBuffer buffer, int length) {
+        if (buffer.getInt(HEADER_OFFSET_MAGIC) != MAGIC
+                || buffer.getInt(HEADER_OFFSET_VERSION) != FORMAT_VERSION) {
+            return false;
+        }
+        int storedDays = buffer.getInt(HEADER_OFFSET_DAY_COUNT);
+        return storedDays >= 0 && storedDays <= MAX_DAYS && length == getFileSize(storedDays)
+                && buffer.getLong(HEADER_OFFSET_SEQUENCE) == buffer.getLong(length - TRAILER_SIZE);
+    }
+
+    /**
+     * Called by the provider whenever the set of files waiting to be rewritten changes.
+     *
+     * @param all true if every file is waiting, whatever the set says
+     */
+    static void setStale(boolean all, Set<String> locationSettings) {
+        synchronized (sLock) {
+            sAllStale = all;
+            sStale = locationSettings;
+        }
+    }
+
+    /**
+     * Has the next read of a location's file map it again, after the file was replaced or
+     * deleted.
+     */
+    static void markChanged(String locationSetting) {
+        Mapping mapping;
+        synchronized (sLock) {
+            mapping = sMappings.get(locationSetting);
+        }
+        if (mapping != null) {
+            mapping.mChanged = true;
+        }
+    }
+
+    private static int getRecordOffset(int record) {
+        return HEADER_SIZE + record * RECORD_SIZE;
+    }
+
+    private int getDayOffset(int day) {
+        if (day < 0 || day >= mDayCount) {
+            throw new IndexOutOfBoundsException("Day " + day + " of " + mDayCount);
+        }
+        return getRecordOffset(mFirstDay + day);
+    }
+
+    /**
+     * @return the sequence the file was published with.
+     */
+    long getSequence() {
+        return mBuffer.getLong(HEADER_OFFSET_SEQUENCE);
+    }
+
+    @Override
+    public int getDayCount() {
+        return mDayCount;
+    }
+
+    @Override
+    public long getDate(int day) {
+        return mBuffer.getLong(getDayOffset(day) + RECORD_OFFSET_DATE);
+    }
+
+    @Override
+    public int getWeatherId(int day) {
+        return mBuffer.getInt(getDayOffset(day) + RECORD_OFFSET_WEATHER_ID);
+    }
+
+    @Override
+    public double getMaxTemp(int day) {
+        return mBuffer.getDouble(getDayOffset(day) + RECORD_OFFSET_MAX_TEMP);
+    }
+
+    @Override
+    public double getMinTemp(int day) {
+        return mBuffer.getDouble(getDayOffset(day) + RECORD_OFFSET_MIN_TEMP);
+    }
+
+    /**
+     * Writes the snapshot for a location from a cursor over
+     * {@link ForecastSnapshot#SNAPSHOT_COLUMNS}, in date order, and atomically replaces the
+     * previous one.  Only the first {@link #MAX_DAYS} rows are kept.
+     *
+     * @param sequence written to the header and the trailer so readers can spot a torn file
+     */
+    static void publish(File directory, String locationSetting, Cursor cursor, long sequence)
+            throws IOException {
+        int dayCount = Math.min(cursor.getCount(), MAX_DAYS);
+        ByteBuffer buffer = ByteBuffer.allocate(getFileSize(dayCount));
+        buffer.putInt(MAGIC)
+                .putInt(FORMAT_VERSION)
+                .putLong(sequence)
+                .putLong(System.currentTimeMillis())
+                .putInt(dayCount)
+                .putInt(0);
+        for (int i = 0; i < dayCount && cursor.moveToNext(); i++) {
+            buffer.putLong(cursor.getLong(INDEX_DATE))
+                    .putInt(cursor.getInt(INDEX_WEATHER_ID))
+                    .putInt(0)
+                    .putDouble(cursor.getDouble(INDEX_MAX_TEMP))
+                    .putDouble(cursor.getDouble(INDEX_MIN_TEMP));
+        }
+        buffer.position(getFileSize(dayCount) - TRAILER_SIZE);
+        buffer.putLong(sequence);
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        File file = new File(directory, getFileName(locationSetting));
+        File temp = new File(directory, file.getName() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(buffer.array());
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Unable to replace " + file);
+        }
+        markChanged(locationSetting);
+    }
+
+    /**
+     * Deletes the snapshot files of every location not in the given set.
+     */
+    static void deleteAllExcept(File directory, Set<String> locationSettings) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(FILE_SUFFIX)) {
+                continue;
+            }
+            String locationSetting = Uri.decode(
+                    name.substring(0, name.length() - FILE_SUFFIX.length()));
+            if (!locationSettings.contains(locationSetting)) {
+                file.delete();
+                markChanged(locationSetting);
+            }
+        }
+    }
+
+    /**
+     * Deletes the snapshot file for a location, so readers fall back to the provider.
+     */
+    static void delete(File directory, String locationSetting) {
+        new File(directory, getFileName(locationSetting)).delete();
+        markChanged(locationSetting);
+    }
+}
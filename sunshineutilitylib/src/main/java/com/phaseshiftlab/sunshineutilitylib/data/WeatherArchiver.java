@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phaseshiftlab.sunshineutilitylib.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.phaseshiftlab.sunshineutilitylib.data.WeatherContract.ArchiveStorageEntry;
+import com.phaseshiftlab.sunshineutilitylib.data.WeatherContract.RollupEntry;
+import com.phaseshiftlab.sunshineutilitylib.data.WeatherContract.WeatherEntry;
+
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Copies finalized (past) days out of the weather table into the archive before they are
+ * deleted, and folds each newly archived day into its weekly and monthly rollups.
+ *
+ * Callers are expected to hold a transaction around the archive call and the delete that
+ * follows it, so a day is never dropped without being archived.
+ */
+class WeatherArchiver {
+
+    private static final String[] ARCHIVED_COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    // these indices must match ARCHIVED_COLUMNS
+    private static final int INDEX_LOC_KEY = 0;
+    private static final int INDEX_DATE = 1;
+    private static final int INDEX_WEATHER_ID = 3;
+    private static final int INDEX_MIN_TEMP = 4;
+    private static final int INDEX_MAX_TEMP = 5;
+
+    private static final String sRollupUpdate = "UPDATE " + RollupEntry.TABLE_NAME + " SET " +
+            RollupEntry.COLUMN_MIN_TEMP + " = MIN(" + RollupEntry.COLUMN_MIN_TEMP + ", ?), " +
+            RollupEntry.COLUMN_MAX_TEMP + " = MAX(" + RollupEntry.COLUMN_MAX_TEMP + ", ?), " +
+            // Every right hand side sees the old values, so this is the new sum over the new count
+            RollupEntry.COLUMN_MEAN_TEMP + " = (" + RollupEntry.COLUMN_TEMP_SUM + " + ?) / (" +
+            RollupEntry.COLUMN_DAY_COUNT + " + 1), " +
+            RollupEntry.COLUMN_TEMP_SUM + " = " + RollupEntry.COLUMN_TEMP_SUM + " + ?, " +
+            RollupEntry.COLUMN_DAY_COUNT + " = " + RollupEntry.COLUMN_DAY_COUNT + " + 1, " +
+            "%1$s = %1$s + 1" +
+            " WHERE " + RollupEntry.COLUMN_LOC_KEY + " = ? AND " +
+            RollupEntry.COLUMN_PERIOD + " = ? AND " +
+            RollupEntry.COLUMN_PERIOD_START + " = ?";
+
+    // The archived metrics, which are stored in tenths
+    private static final String[] SCALED_COLUMNS = {
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private final SQLiteDatabase mDb;
+    // Condition text to its key in the condition table, for the conditions seen so far
+    private final Map<String, Long> mConditionKeys = new HashMap<String, Long>();
+
+    WeatherArchiver(SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    /**
+     * Archives every weather row matching the selection whose day is already over.  Days that
+     * were archived before are left alone, so calling this twice never counts a day twice.
+     *
+     * @return the number of newly archived days.
+     */
+    int archiveFinalizedDays(String selection, String[] selectionArgs) {
+        String finalizedSelection = WeatherEntry.COLUMN_DATE + " < " +
+                WeatherContract.normalizeDate(System.currentTimeMillis());
+        if (selection != null) {
+            finalizedSelection = "(" + selection + ") AND " + finalizedSelection;
+        }
+
+        int archived = 0;
+        Cursor cursor = mDb.query(WeatherEntry.TABLE_NAME, ARCHIVED_COLUMNS,
+                finalizedSelection, selectionArgs, null, null, null);
+        try {
+            ContentValues values = new ContentValues();
+            while (cursor.moveToNext()) {
+                values.clear();
+                for (int i = 0; i < ARCHIVED_COLUMNS.length; i++) {
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            values.put(ARCHIVED_COLUMNS[i], cursor.getLong(i));
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            values.put(ARCHIVED_COLUMNS[i], cursor.getDouble(i));
+                            break;
+                        default:
+                            values.put(ARCHIVED_COLUMNS[i], cursor.getString(i));
+                    }
+                }
+                if (archiveDay(values)) {
+                    addToRollups(cursor);
+                    archived++;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return archived;
+    }
+
+    /**
+     * Writes one day, given in WeatherEntry columns, to the archive's compact storage, unless
+     * that day is archived already.
+     *
+     * @return whether the day was newly archived.
+     */
+    boolean archiveDay(ContentValues day) {
+        ContentValues encoded = new ContentValues();
+        encoded.put(WeatherEntry.COLUMN_LOC_KEY, day.getAsLong(WeatherEntry.COLUMN_LOC_KEY));
+        encoded.put(WeatherEntry.COLUMN_DATE, day.getAsLong(WeatherEntry.COLUMN_DATE));
+        encoded.put(ArchiveStorageEntry.COLUMN_CONDITION_KEY,
+                getConditionKey(day.getAsString(WeatherEntry.COLUMN_SHORT_DESC)));
+        encoded.put(WeatherEntry.COLUMN_WEATHER_ID, day.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID));
+        for (String column : SCALED_COLUMNS) {
+            encoded.put(column, scale(day.getAsDouble(column)));
+        }
+        return mDb.insertWithOnConflict(ArchiveStorageEntry.TABLE_NAME, null, encoded,
+                SQLiteDatabase.CONFLICT_IGNORE) != -1;
+    }
+
+    // Rounds half away from zero, like the SQLite ROUND() used when the archive was compacted
+    private static long scale(double value) {
+        long scaled = Math.round(Math.abs(value) * ArchiveStorageEntry.SCALE);
+        return value < 0 ? -scaled : scaled;
+    }
+
+    private long getConditionKey(String shortDesc) {
+        Long key = mConditionKeys.get(shortDesc);
+        if (key == null) {
+            ContentValues condition = new ContentValues();
+            condition.put(WeatherEntry.COLUMN_SHORT_DESC, shortDesc);
+            key = mDb.insertWithOnConflict(ArchiveStorageEntry.CONDITION_TABLE_NAME, null,
+                    condition, SQLiteDatabase.CONFLICT_IGNORE);
+            if (key == -1) {
+                key = DatabaseUtils.longForQuery(mDb, "SELECT " +
+                                ArchiveStorageEntry.COLUMN_CONDITION_KEY + " FROM " +
+                                ArchiveStorageEntry.CONDITION_TABLE_NAME + " WHERE " +
+                                WeatherEntry.COLUMN_SHORT_DESC + " = ?",
+                        new String[]{shortDesc});
+            }
+            mConditionKeys.put(shortDesc, key);
+        }
+        return key;
+    }
+
+    private void addToRollups(Cursor day) {
+        long locationId = day.getLong(INDEX_LOC_KEY);
+        long date = day.getLong(INDEX_DATE);
+        int weatherId = day.getInt(INDEX_WEATHER_ID);
+        double min = day.getDouble(INDEX_MIN_TEMP);
+        double max = day.getDouble(INDEX_MAX_TEMP);
+
+        addToRollup(locationId, RollupEntry.PERIOD_WEEK, getPeriodStart(RollupEntry.PERIOD_WEEK, date),
+                weatherId, min, max);
+        addToRollup(locationId, RollupEntry.PERIOD_MONTH, getPeriodStart(RollupEntry.PERIOD_MONTH, date),
+                weatherId, min, max);
+    }
+
+    private void addToRollup(long locationId, String period, long periodStart,
+                             int weatherId, double min, double max) {
+        // Make sure the rollup row exists, seeded so that the update below is correct for the
+        // first day as well as for every later one.
+        ContentValues seed = new ContentValues();
+        seed.put(RollupEntry.COLUMN_LOC_KEY, locationId);
+        seed.put(RollupEntry.COLUMN_PERIOD, period);
+        seed.put(RollupEntry.COLUMN_PERIOD_START, periodStart);
+        seed.put(RollupEntry.COLUMN_MIN_TEMP, min);
+        seed.put(RollupEntry.COLUMN_MAX_TEMP, max);
+        mDb.insertWithOnConflict(RollupEntry.TABLE_NAME, null, seed, SQLiteDatabase.CONFLICT_IGNORE);
+
+        double dayMean = (min + max) / 2;
+        mDb.execSQL(String.format(sRollupUpdate, getConditionCountColumn(weatherId)),
+                new Object[]{min, max, dayMean, dayMean, locationId, period, periodStart});
+    }
+
+    /**
+     * @return the normalized date of the first day of the week or month containing the date.
+     */
+    static long getPeriodStart(String period, long date) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(date);
+        if (RollupEntry.PERIOD_WEEK.equals(period)) {
+            calendar.set(Calendar.DAY_OF_WEEK, calendar.getFirstDayOfWeek());
+            if (calendar.getTimeInMillis() > date) {
+                calendar.add(Calendar.WEEK_OF_YEAR, -1);
+            }
+        } else if (RollupEntry.PERIOD_MONTH.equals(period)) {
+            calendar.set(Calendar.DAY_OF_MONTH, 1);
+        } else {
+            throw new IllegalArgumentException("Unknown rollup period: " + period);
+        }
+        return WeatherContract.normalizeDate(calendar.getTimeInMillis());
+    }
+
+    private static String getConditionCountColumn(int weatherId) {
+        switch (weatherId / 100) {
+            case 2:
+                return RollupEntry.COLUMN_COUNT_STORM;
+            case 3:
+                return RollupEntry.COLUMN_COUNT_DRIZZLE;
+            case 5:
+                return RollupEntry.COLUMN_COUNT_RAIN;
+            case 6:
+                return RollupEntry.COLUMN_COUNT_SNOW;
+            case 7:
+                return RollupEntry.COLUMN_COUNT_ATMOSPHERE;
+            case 8:
+                return weatherId == 800 ? RollupEntry.COLUMN_COUNT_CLEAR
+                        : RollupEntry.COLUMN_COUNT_CLOUDS;
+            default:
+                return RollupEntry.COLUMN_COUNT_OTHER;
+        }
+    }
+}
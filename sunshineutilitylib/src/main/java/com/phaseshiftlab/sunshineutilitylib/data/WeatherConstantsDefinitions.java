@@ -20,7 +20,12 @@ public abstract class WeatherConstantsDefinitions {
             WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
             WeatherContract.LocationEntry.COLUMN_COORD_LAT,
-            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+            // The detail pane is bound from the list's rows, so the list loads its columns too
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
     };
 
     // These indices are tied to FORECAST_COLUMNS.  If FORECAST_COLUMNS changes, these
@@ -34,6 +39,10 @@ public abstract class WeatherConstantsDefinitions {
     public static final int COL_WEATHER_CONDITION_ID = 6;
     public static final int COL_COORD_LAT = 7;
     public static final int COL_COORD_LONG = 8;
+    public static final int COL_WEATHER_HUMIDITY = 9;
+    public static final int COL_WEATHER_PRESSURE = 10;
+    public static final int COL_WEATHER_WIND_SPEED = 11;
+    public static final int COL_WEATHER_DEGREES = 12;
 
     public static final String DATA_PATH = "/data";
     public static final String MIN_TEMP = "min_temp";
@@ -19,7 +19,8 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
+
+import com.phaseshiftlab.sunshineutilitylib.JulianDays;
 
 /**
  * Defines table and column names for the weather database.
@@ -43,15 +44,44 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_ARCHIVE = "archive";
+    public static final String PATH_ROLLUP = "rollup";
+    public static final String PATH_WEATHER_REFRESH = "weather_refresh";
+    public static final String PATH_CHANGES = "changes";
+
+    // Provider call() method that runs the retention and compaction pass over the database.
+    // The extras may carry a retention window per table, in days before today, under
+    // getRetentionDaysKey(tableName).  Locations nothing refers to any more are removed, except
+    // the preferred one.  The returned Bundle reports the database size in bytes
+    // before and after under KEY_DB_SIZE_BEFORE / KEY_DB_SIZE_AFTER, and the rows removed from
+    // each table under getRowsDeletedKey(tableName).
+    public static final String METHOD_RUN_MAINTENANCE = "run_maintenance";
+    public static final String KEY_DB_SIZE_BEFORE = "db_size_before";
+    public static final String KEY_DB_SIZE_AFTER = "db_size_after";
+
+    public static String getRetentionDaysKey(String tableName) {
+        return "retention_days_" + tableName;
+    }
+
+    public static String getRowsDeletedKey(String tableName) {
+        return "rows_deleted_" + tableName;
+    }
+
+    // Provider call() method that returns a ForecastSnapshot of today and the following days
+    // for the location passed as the call's arg.  KEY_DAYS in the extras sets how many days.
+    public static final String METHOD_GET_FORECAST_SNAPSHOT = "get_forecast_snapshot";
+    public static final String KEY_DAYS = "days";
+
+    // Provider call() method that returns the latest change feed version under KEY_VERSION.
+    // See ChangeEntry.
+    public static final String METHOD_GET_CHANGE_VERSION = "get_change_version";
+    public static final String KEY_VERSION = "version";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        // normalize the start date to the beginning of the day
+        return JulianDays.normalizeDate(startDate);
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -86,6 +116,27 @@ public class WeatherContract {
         }
     }
 
+    /*
+        Inner class that names the read-optimized copy of the weather table.  Each row carries
+        the weather columns plus the location columns of its location, so location queries are
+        a single-table range scan instead of a JOIN.  It has no columns of its own: it exposes
+        exactly the columns of WeatherEntry and LocationEntry, and is kept in sync by triggers
+        defined in WeatherDbHelper.
+     */
+    public static final class WeatherLocationEntry {
+
+        public static final String TABLE_NAME = "weather_location";
+    }
+
+    /*
+        Inner class that names the staging table a full forecast refresh is written into before
+        it is swapped into the weather table.  Same columns as WeatherEntry, minus the _ID.
+     */
+    public static final class WeatherStagingEntry {
+
+        public static final String TABLE_NAME = "weather_staging";
+    }
+
     /* Inner class that defines the table contents of the weather table */
     public static final class WeatherEntry implements BaseColumns {
 
@@ -99,6 +150,12 @@ public class WeatherContract {
 
         public static final String TABLE_NAME = "weather";
 
+        // Bulk inserting into this URI replaces the whole forecast of every location in the
+        // inserted rows: afterwards each of those locations has exactly the inserted days.
+        // Readers see either the old or the new forecast, never a mix of the two.
+        public static final Uri REFRESH_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_WEATHER_REFRESH).build();
+
         // Column with the foreign key into the location table.
         public static final String COLUMN_LOC_KEY = "location_id";
         // Date, stored as long in milliseconds since the epoch
@@ -126,6 +183,19 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Query parameters for paging through a location's forecast.  PARAM_LIMIT caps the number
+        // of rows returned, and PARAM_AFTER_DATE only returns days strictly after the given
+        // (normalized) date, so the next page starts where the last one ended.  Either one makes
+        // date order the default sort.
+        public static final String PARAM_LIMIT = "limit";
+        public static final String PARAM_AFTER_DATE = "after";
+
+        // Query parameter for bulk inserts into CONTENT_URI or REFRESH_URI: how long, in
+        // milliseconds, one insert may hold the write lock before letting a waiting writer in.
+        // The rows inserted up to that point are committed when it does.
+        public static final String PARAM_MAX_LOCK_HOLD = "max_lock_hold";
+        public static final long DEFAULT_MAX_LOCK_HOLD_MILLIS = 50;
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -144,11 +214,30 @@ public class WeatherContract {
                     .appendQueryParameter(COLUMN_DATE, Long.toString(normalizedDate)).build();
         }
 
+        public static Uri buildWeatherLocationWithStartDate(
+                String locationSetting, long startDate, int limit) {
+            return buildWeatherLocationWithStartDate(locationSetting, startDate).buildUpon()
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
+        public static Uri buildWeatherLocationAfterDate(
+                String locationSetting, long afterDate, int limit) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_AFTER_DATE, Long.toString(normalizeDate(afterDate)))
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
         public static Uri buildWeatherLocationWithDate(String locationSetting, long date) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting)
                     .appendPath(Long.toString(normalizeDate(date))).build();
         }
 
+        public static Uri buildWithMaxLockHold(Uri uri, long maxLockHoldMillis) {
+            return uri.buildUpon()
+                    .appendQueryParameter(PARAM_MAX_LOCK_HOLD, Long.toString(maxLockHoldMillis))
+                    .build();
+        }
+
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
@@ -164,5 +253,225 @@ public class WeatherContract {
             else
                 return 0;
         }
+
+        public static long getAfterDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_AFTER_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return 0;
+        }
+
+        /*
+            Returns the row limit as a String, ready to hand to SQLite, or null if there is none.
+         */
+        public static String getLimitFromUri(Uri uri) {
+            String limitString = uri.getQueryParameter(PARAM_LIMIT);
+            if (null != limitString && limitString.length() > 0)
+                return Integer.toString(Integer.parseInt(limitString));
+            else
+                return null;
+        }
+
+        public static long getMaxLockHoldFromUri(Uri uri) {
+            String holdString = uri.getQueryParameter(PARAM_MAX_LOCK_HOLD);
+            if (null != holdString && holdString.length() > 0)
+                return Long.parseLong(holdString);
+            else
+                return DEFAULT_MAX_LOCK_HOLD_MILLIS;
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the weather archive.  Once a day is in
+        the past the sync stops caring about it, but a copy of its final forecast is kept here
+        per location so the app can compare against history.  The columns mirror WeatherEntry.
+     */
+    public static final class ArchiveEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_ARCHIVE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ARCHIVE;
+
+        public static final String TABLE_NAME = "weather_archive";
+
+        // Query parameters bounding a range of archived days, both inclusive
+        public static final String PARAM_START_DATE = "start";
+        public static final String PARAM_END_DATE = "end";
+
+        public static Uri buildArchiveLocationWithRange(
+                String locationSetting, long startDate, long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START_DATE, Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(PARAM_END_DATE, Long.toString(normalizeDate(endDate)))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_START_DATE);
+            return dateString == null ? 0 : Long.parseLong(dateString);
+        }
+
+        public static long getEndDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_END_DATE);
+            return dateString == null ? Long.MAX_VALUE : Long.parseLong(dateString);
+        }
+    }
+
+    /*
+        Inner class that names the compact storage behind ArchiveEntry, whose table name is a
+        view decoding it back to the WeatherEntry columns.  Each condition text is stored once,
+        in the condition table, and referenced by id.  The metrics are stored as integers in
+        tenths, which is more precision than the app ever shows.  Only the archiver and the
+        maintenance pass use these directly.
+     */
+    public static final class ArchiveStorageEntry {
+
+        public static final String TABLE_NAME = "weather_archive_compact";
+        public static final String CONDITION_TABLE_NAME = "weather_condition";
+
+        // Key into the condition table, stored in place of WeatherEntry.COLUMN_SHORT_DESC
+        public static final String COLUMN_CONDITION_KEY = "condition_id";
+
+        // The stored metrics are the real values times this, rounded
+        public static final int SCALE = 10;
+    }
+
+    /*
+        Inner class that defines the table contents of the weekly and monthly rollups of the
+        archive.  Rollups are updated as each day is archived, so reading one never scans the
+        archive.
+     */
+    public static final class RollupEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_ROLLUP).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ROLLUP;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ROLLUP;
+
+        public static final String TABLE_NAME = "weather_rollup";
+
+        // Values for COLUMN_PERIOD
+        public static final String PERIOD_WEEK = "week";
+        public static final String PERIOD_MONTH = "month";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Either PERIOD_WEEK or PERIOD_MONTH
+        public static final String COLUMN_PERIOD = "period";
+        // Normalized date of the first day of the week or month
+        public static final String COLUMN_PERIOD_START = "period_start";
+        // Number of archived days folded into this rollup
+        public static final String COLUMN_DAY_COUNT = "day_count";
+
+        // Lowest min and highest max temperature over the period
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        // Mean of the daily (min + max) / 2 temperatures, and the running sum behind it
+        public static final String COLUMN_MEAN_TEMP = "mean";
+        public static final String COLUMN_TEMP_SUM = "temp_sum";
+
+        // Number of days per condition group, by OpenWeatherMap condition code
+        public static final String COLUMN_COUNT_STORM = "count_storm";          // 2xx
+        public static final String COLUMN_COUNT_DRIZZLE = "count_drizzle";      // 3xx
+        public static final String COLUMN_COUNT_RAIN = "count_rain";            // 5xx
+        public static final String COLUMN_COUNT_SNOW = "count_snow";            // 6xx
+        public static final String COLUMN_COUNT_ATMOSPHERE = "count_atmosphere";// 7xx
+        public static final String COLUMN_COUNT_CLEAR = "count_clear";          // 800
+        public static final String COLUMN_COUNT_CLOUDS = "count_clouds";        // 80x
+        public static final String COLUMN_COUNT_OTHER = "count_other";          // anything else
+
+        /*
+            The rollup of the given kind containing the given date.
+         */
+        public static Uri buildRollupLocationWithDate(String locationSetting, String period,
+                                                      long date) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).appendPath(period)
+                    .appendPath(Long.toString(normalizeDate(date))).build();
+        }
+
+        /*
+            All rollups of the given kind starting between the two dates, both inclusive.
+         */
+        public static Uri buildRollupLocationWithRange(String locationSetting, String period,
+                                                       long startDate, long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).appendPath(period)
+                    .appendQueryParameter(ArchiveEntry.PARAM_START_DATE,
+                            Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(ArchiveEntry.PARAM_END_DATE,
+                            Long.toString(normalizeDate(endDate)))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static String getPeriodFromUri(Uri uri) {
+            return uri.getPathSegments().get(2);
+        }
+
+        public static long getDateFromUri(Uri uri) {
+            return Long.parseLong(uri.getPathSegments().get(3));
+        }
+    }
+
+    /*
+        Inner class that defines the change feed of the weather table.  Every insert, update or
+        delete of a weather row gives its (location, date) a new version, higher than any
+        before it.  Querying CONTENT_URI with PARAM_SINCE returns one row per day changed after
+        that version, carrying its latest version, whether it is now deleted, and otherwise its
+        current WeatherEntry and LocationEntry columns.
+
+        To follow the feed, read the current version with METHOD_GET_CHANGE_VERSION, load the
+        full forecast, and then on each weather notification ask for the changes since the
+        highest version seen so far.  Records of deleted days from before the weather retention
+        window are dropped by the maintenance pass.
+     */
+    public static final class ChangeEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_CHANGES).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CHANGES;
+
+        public static final String TABLE_NAME = "weather_changes";
+
+        // Version of the last change to the day
+        public static final String COLUMN_VERSION = "version";
+        // 1 if the day has been deleted since, in which case only its location and date are set
+        public static final String COLUMN_DELETED = "deleted";
+
+        // Query parameter with the version the caller is up to date with
+        public static final String PARAM_SINCE = "since";
+
+        public static Uri buildChangesSince(long version) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_SINCE, Long.toString(version)).build();
+        }
+
+        public static Uri buildChangesForLocationSince(String locationSetting, long version) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_SINCE, Long.toString(version)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getSinceFromUri(Uri uri) {
+            String versionString = uri.getQueryParameter(PARAM_SINCE);
+            return versionString == null ? 0 : Long.parseLong(versionString);
+        }
     }
 }
@@ -16,24 +16,99 @@
 package com.phaseshiftlab.sunshineutilitylib.data;
 
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.phaseshiftlab.sunshineutilitylib.data.WeatherContract.ArchiveEntry;
+import com.phaseshiftlab.sunshineutilitylib.data.WeatherContract.ArchiveStorageEntry;
+import com.phaseshiftlab.sunshineutilitylib.data.WeatherContract.ChangeEntry;
 import com.phaseshiftlab.sunshineutilitylib.data.WeatherContract.LocationEntry;
+import com.phaseshiftlab.sunshineutilitylib.data.WeatherContract.RollupEntry;
 import com.phaseshiftlab.sunshineutilitylib.data.WeatherContract.WeatherEntry;
+import com.phaseshiftlab.sunshineutilitylib.data.WeatherContract.WeatherLocationEntry;
+import com.phaseshiftlab.sunshineutilitylib.data.WeatherContract.WeatherStagingEntry;
 
 /**
  * Manages a local database for weather data.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version and add a
+    // Migration for it to MIGRATIONS below.
+    static final int DATABASE_VERSION = 8;
+
+    // The oldest schema we know how to migrate in place.  Anything older is wiped.
+    static final int OLDEST_MIGRATABLE_VERSION = 2;
+
+    /**
+     * One in-place schema upgrade step, from a version to the next one.
+     */
+    interface Migration {
+        void migrate(SQLiteDatabase db);
+    }
+
+    // MIGRATIONS[i] upgrades the schema from version OLDEST_MIGRATABLE_VERSION + i to the next.
+    private static final Migration[] MIGRATIONS = {
+            // 2 -> 3: add the weather_location read model
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    createWeatherLocationReadModel(db);
+                }
+            },
+            // 3 -> 4: add the daily archive and its rollups
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    createArchiveTables(db);
+                }
+            },
+            // 4 -> 5: add the staging table for forecast refreshes
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    createStagingTable(db);
+                }
+            },
+            // 5 -> 6: add the change feed
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    createChangeFeed(db);
+                }
+            },
+            // 6 -> 7: move the archive into compact storage behind a view
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    compactArchive(db);
+                }
+            },
+            // 7 -> 8: only log updates to the change feed that change a stored value
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("DROP TRIGGER IF EXISTS " + ChangeEntry.TABLE_NAME + "_weather_update");
+                    createChangeFeedUpdateTrigger(db);
+                }
+            },
+    };
 
     static final String DATABASE_NAME = "weather.db";
 
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // Readers get their own connections and keep reading the last committed state while a
+        // write is in progress, instead of queueing behind it.
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // Let the maintenance pass hand deleted pages back with incremental vacuums.  This only
+        // takes effect for new databases; older ones are converted by WeatherDbMaintenance.
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
     }
 
     @Override
@@ -75,24 +150,389 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
 
                 // To assure the application have just one weather entry per day
-                // per location, it's created a UNIQUE constraint with REPLACE strategy
+                // per location, it's created a UNIQUE constraint with REPLACE strategy.
+                // WeatherProvider upserts instead, updating the existing row for a day so its
+                // _ID stays the same; the REPLACE is only a fallback for raw inserts.
                 " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
                 WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        createWeatherLocationReadModel(sqLiteDatabase);
+        createArchiveTables(sqLiteDatabase);
+        compactArchive(sqLiteDatabase);
+        createStagingTable(sqLiteDatabase);
+        createChangeFeed(sqLiteDatabase);
+    }
+
+    // The columns the read model copies out of the weather table, in table order.
+    private static final String WEATHER_COLUMNS =
+            WeatherEntry._ID + ", " +
+            WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherEntry.COLUMN_DEGREES;
+
+    // The weather columns holding a day's values, as opposed to its id and (location, date) key.
+    static final String[] WEATHER_VALUE_COLUMNS = {
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    // The columns the read model copies out of the location table, in table order.
+    private static final String LOCATION_COLUMNS =
+            LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+            LocationEntry.COLUMN_CITY_NAME + ", " +
+            LocationEntry.COLUMN_COORD_LAT + ", " +
+            LocationEntry.COLUMN_COORD_LONG;
+
+    /**
+     * Creates the denormalized weather_location table, the triggers that keep it in sync with
+     * the weather and location tables, and fills it from whatever is already stored.
+     */
+    static void createWeatherLocationReadModel(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + WeatherLocationEntry.TABLE_NAME + " (" +
+                // Same id as the weather row it mirrors
+                WeatherEntry._ID + " INTEGER PRIMARY KEY, " +
+                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_LOCATION_SETTING + " TEXT NOT NULL, " +
+                LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
+                LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                // The weather table replaces rows on (date, location) conflicts without firing
+                // its delete trigger, so the copy has to resolve the same conflict itself.
+                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);");
+
+        // Every hot query filters on location_setting and a date or date range.
+        db.execSQL("CREATE INDEX " + WeatherLocationEntry.TABLE_NAME + "_setting_date ON " +
+                WeatherLocationEntry.TABLE_NAME + " (" +
+                LocationEntry.COLUMN_LOCATION_SETTING + ", " + WeatherEntry.COLUMN_DATE + ");");
+
+        final String copyNewWeatherRow = "INSERT OR REPLACE INTO " + WeatherLocationEntry.TABLE_NAME +
+                " (" + WEATHER_COLUMNS + ", " + LOCATION_COLUMNS + ") SELECT " +
+                prefixed("new.", WEATHER_COLUMNS) + ", " + LOCATION_COLUMNS +
+                " FROM " + LocationEntry.TABLE_NAME +
+                " WHERE " + LocationEntry._ID + " = new." + WeatherEntry.COLUMN_LOC_KEY + "; ";
+        final String deleteOldWeatherRow = "DELETE FROM " + WeatherLocationEntry.TABLE_NAME +
+                " WHERE " + WeatherEntry._ID + " = old." + WeatherEntry._ID + "; ";
+
+        db.execSQL("CREATE TRIGGER " + WeatherLocationEntry.TABLE_NAME + "_weather_insert" +
+                " AFTER INSERT ON " + WeatherEntry.TABLE_NAME + " BEGIN " +
+                copyNewWeatherRow +
+                "END;");
+        db.execSQL("CREATE TRIGGER " + WeatherLocationEntry.TABLE_NAME + "_weather_update" +
+                " AFTER UPDATE ON " + WeatherEntry.TABLE_NAME + " BEGIN " +
+                deleteOldWeatherRow +
+                copyNewWeatherRow +
+                "END;");
+        db.execSQL("CREATE TRIGGER " + WeatherLocationEntry.TABLE_NAME + "_weather_delete" +
+                " AFTER DELETE ON " + WeatherEntry.TABLE_NAME + " BEGIN " +
+                deleteOldWeatherRow +
+                "END;");
+        db.execSQL("CREATE TRIGGER " + WeatherLocationEntry.TABLE_NAME + "_location_update" +
+                " AFTER UPDATE ON " + LocationEntry.TABLE_NAME + " BEGIN " +
+                "UPDATE " + WeatherLocationEntry.TABLE_NAME + " SET " +
+                WeatherEntry.COLUMN_LOC_KEY + " = new." + LocationEntry._ID + ", " +
+                LocationEntry.COLUMN_LOCATION_SETTING + " = new." + LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                LocationEntry.COLUMN_CITY_NAME + " = new." + LocationEntry.COLUMN_CITY_NAME + ", " +
+                LocationEntry.COLUMN_COORD_LAT + " = new." + LocationEntry.COLUMN_COORD_LAT + ", " +
+                LocationEntry.COLUMN_COORD_LONG + " = new." + LocationEntry.COLUMN_COORD_LONG +
+                " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = old." + LocationEntry._ID + "; " +
+                "END;");
+        db.execSQL("CREATE TRIGGER " + WeatherLocationEntry.TABLE_NAME + "_location_delete" +
+                " AFTER DELETE ON " + LocationEntry.TABLE_NAME + " BEGIN " +
+                "DELETE FROM " + WeatherLocationEntry.TABLE_NAME +
+                " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = old." + LocationEntry._ID + "; " +
+                "END;");
+
+        // Backfill from any rows that predate the read model.
+        db.execSQL("INSERT INTO " + WeatherLocationEntry.TABLE_NAME +
+                " (" + WEATHER_COLUMNS + ", " + LOCATION_COLUMNS + ") SELECT " +
+                prefixed(WeatherEntry.TABLE_NAME + ".", WEATHER_COLUMNS) + ", " + LOCATION_COLUMNS +
+                " FROM " + WeatherEntry.TABLE_NAME + " INNER JOIN " + LocationEntry.TABLE_NAME +
+                " ON " + WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY +
+                " = " + LocationEntry.TABLE_NAME + "." + LocationEntry._ID + ";");
+    }
+
+    /**
+     * Creates the weather archive, in the plain layout it started out with, and the
+     * weekly/monthly rollup tables.  {@link #compactArchive} converts the archive afterwards.
+     */
+    static void createArchiveTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + ArchiveEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                // One archived day per location; range queries walk this key
+                " PRIMARY KEY (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + "));");
+
+        db.execSQL("CREATE TABLE " + RollupEntry.TABLE_NAME + " (" +
+                RollupEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                RollupEntry.COLUMN_PERIOD + " TEXT NOT NULL, " +
+                RollupEntry.COLUMN_PERIOD_START + " INTEGER NOT NULL, " +
+                RollupEntry.COLUMN_DAY_COUNT + " INTEGER NOT NULL DEFAULT 0, " +
+                RollupEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                RollupEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                RollupEntry.COLUMN_MEAN_TEMP + " REAL NOT NULL DEFAULT 0, " +
+                RollupEntry.COLUMN_TEMP_SUM + " REAL NOT NULL DEFAULT 0, " +
+                RollupEntry.COLUMN_COUNT_STORM + " INTEGER NOT NULL DEFAULT 0, " +
+                RollupEntry.COLUMN_COUNT_DRIZZLE + " INTEGER NOT NULL DEFAULT 0, " +
+                RollupEntry.COLUMN_COUNT_RAIN + " INTEGER NOT NULL DEFAULT 0, " +
+                RollupEntry.COLUMN_COUNT_SNOW + " INTEGER NOT NULL DEFAULT 0, " +
+                RollupEntry.COLUMN_COUNT_ATMOSPHERE + " INTEGER NOT NULL DEFAULT 0, " +
+                RollupEntry.COLUMN_COUNT_CLEAR + " INTEGER NOT NULL DEFAULT 0, " +
+                RollupEntry.COLUMN_COUNT_CLOUDS + " INTEGER NOT NULL DEFAULT 0, " +
+                RollupEntry.COLUMN_COUNT_OTHER + " INTEGER NOT NULL DEFAULT 0, " +
+                " PRIMARY KEY (" + RollupEntry.COLUMN_LOC_KEY + ", " +
+                RollupEntry.COLUMN_PERIOD + ", " + RollupEntry.COLUMN_PERIOD_START + "));");
+    }
+
+    // The archived metrics, all stored in tenths
+    private static final String[] SCALED_COLUMNS = {
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    /**
+     * Replaces the archive table created by {@link #createArchiveTables} with the compact
+     * storage described in {@link ArchiveStorageEntry}, moving its rows across, and puts a view
+     * of the same name in its place so that readers see no difference.
+     */
+    static void compactArchive(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + ArchiveStorageEntry.CONDITION_TABLE_NAME + " (" +
+                ArchiveStorageEntry.COLUMN_CONDITION_KEY + " INTEGER PRIMARY KEY, " +
+                WeatherEntry.COLUMN_SHORT_DESC + " TEXT UNIQUE NOT NULL);");
+
+        StringBuilder create = new StringBuilder("CREATE TABLE " + ArchiveStorageEntry.TABLE_NAME +
+                " (" +
+                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                ArchiveStorageEntry.COLUMN_CONDITION_KEY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, ");
+        for (String column : SCALED_COLUMNS) {
+            create.append(column).append(" INTEGER NOT NULL, ");
+        }
+        create.append(" PRIMARY KEY (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + "))");
+        // Nothing refers to archived rows by rowid, so where SQLite allows it the primary key
+        // is the table itself instead of an index next to it.
+        if (supportsWithoutRowId(db)) {
+            create.append(" WITHOUT ROWID");
+        }
+        db.execSQL(create.append(";").toString());
+
+        db.execSQL("INSERT INTO " + ArchiveStorageEntry.CONDITION_TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_SHORT_DESC + ") SELECT DISTINCT " +
+                WeatherEntry.COLUMN_SHORT_DESC + " FROM " + ArchiveEntry.TABLE_NAME + ";");
+        StringBuilder copy = new StringBuilder("INSERT INTO " + ArchiveStorageEntry.TABLE_NAME +
+                " SELECT " +
+                "archive." + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                "archive." + WeatherEntry.COLUMN_DATE + ", " +
+                "condition." + ArchiveStorageEntry.COLUMN_CONDITION_KEY + ", " +
+                "archive." + WeatherEntry.COLUMN_WEATHER_ID);
+        for (String column : SCALED_COLUMNS) {
+            copy.append(", CAST(ROUND(archive.").append(column).append(" * ")
+                    .append(ArchiveStorageEntry.SCALE).append(") AS INTEGER)");
+        }
+        copy.append(" FROM " + ArchiveEntry.TABLE_NAME + " AS archive INNER JOIN " +
+                ArchiveStorageEntry.CONDITION_TABLE_NAME + " AS condition ON condition." +
+                WeatherEntry.COLUMN_SHORT_DESC + " = archive." + WeatherEntry.COLUMN_SHORT_DESC +
+                ";");
+        db.execSQL(copy.toString());
+        db.execSQL("DROP TABLE " + ArchiveEntry.TABLE_NAME + ";");
+
+        // Same columns, in the same order, as the table it replaces.  SQLite flattens the view
+        // into each query, so range queries still walk the primary key.
+        StringBuilder view = new StringBuilder("CREATE VIEW " + ArchiveEntry.TABLE_NAME +
+                " AS SELECT " +
+                "archive." + WeatherEntry.COLUMN_LOC_KEY + " AS " + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                "archive." + WeatherEntry.COLUMN_DATE + " AS " + WeatherEntry.COLUMN_DATE + ", " +
+                "condition." + WeatherEntry.COLUMN_SHORT_DESC + " AS " + WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                "archive." + WeatherEntry.COLUMN_WEATHER_ID + " AS " + WeatherEntry.COLUMN_WEATHER_ID);
+        for (String column : SCALED_COLUMNS) {
+            view.append(", archive.").append(column).append(" / ")
+                    .append(ArchiveStorageEntry.SCALE).append(".0 AS ").append(column);
+        }
+        view.append(" FROM " + ArchiveStorageEntry.TABLE_NAME + " AS archive INNER JOIN " +
+                ArchiveStorageEntry.CONDITION_TABLE_NAME + " AS condition ON condition." +
+                ArchiveStorageEntry.COLUMN_CONDITION_KEY + " = archive." +
+                ArchiveStorageEntry.COLUMN_CONDITION_KEY + ";");
+        db.execSQL(view.toString());
+    }
+
+    // WITHOUT ROWID tables arrived in SQLite 3.8.2, which older Android releases predate
+    private static boolean supportsWithoutRowId(SQLiteDatabase db) {
+        String[] version = DatabaseUtils.stringForQuery(db, "SELECT sqlite_version()", null)
+                .split("\\.");
+        int major = Integer.parseInt(version[0]);
+        int minor = version.length > 1 ? Integer.parseInt(version[1]) : 0;
+        int patch = version.length > 2 ? Integer.parseInt(version[2]) : 0;
+        return major > 3 || (major == 3 && (minor > 8 || (minor == 8 && patch >= 2)));
+    }
+
+    /**
+     * Creates the table full forecast refreshes are staged in.  It has the weather table's
+     * columns and (date, location) key, but no id, read model triggers or foreign key, since
+     * nothing reads it but the swap.
+     */
+    static void createStagingTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + WeatherStagingEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                " PRIMARY KEY (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);");
+    }
+
+    /**
+     * Creates the change feed table, the triggers that log every weather change into it, and
+     * logs whatever is already stored so that reading the feed from version 0 sees all of it.
+     */
+    static void createChangeFeed(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + ChangeEntry.TABLE_NAME + " (" +
+                // AUTOINCREMENT so that versions are never reused, even once the highest is gone
+                ChangeEntry.COLUMN_VERSION + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                // Copied so that deletes can still be told apart by location
+                LocationEntry.COLUMN_LOCATION_SETTING + " TEXT, " +
+                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                // Only the latest change to a day is kept; replacing it gives it a new version
+                " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);");
+
+        db.execSQL("CREATE TRIGGER " + ChangeEntry.TABLE_NAME + "_weather_insert" +
+                " AFTER INSERT ON " + WeatherEntry.TABLE_NAME + " BEGIN " +
+                logChange("new.") +
+                "END;");
+        createChangeFeedUpdateTrigger(db);
+        db.execSQL("CREATE TRIGGER " + ChangeEntry.TABLE_NAME + "_weather_delete" +
+                " AFTER DELETE ON " + WeatherEntry.TABLE_NAME + " BEGIN " +
+                logChange("old.") +
+                "END;");
+
+        db.execSQL("INSERT INTO " + ChangeEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + ", " + LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                WeatherEntry.COLUMN_DATE + ") SELECT " +
+                WeatherEntry.COLUMN_LOC_KEY + ", " + LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                WeatherEntry.COLUMN_DATE + " FROM " + WeatherLocationEntry.TABLE_NAME +
+                " ORDER BY " + WeatherEntry.COLUMN_DATE + ";");
+    }
+
+    // Rewriting a day with the values it already has is not a change, so it isn't logged
+    private static void createChangeFeedUpdateTrigger(SQLiteDatabase db) {
+        String[] keyColumns = {WeatherEntry.COLUMN_LOC_KEY, WeatherEntry.COLUMN_DATE};
+        db.execSQL("CREATE TRIGGER " + ChangeEntry.TABLE_NAME + "_weather_update" +
+                " AFTER UPDATE ON " + WeatherEntry.TABLE_NAME +
+                " WHEN " + anyColumnDiffers(keyColumns, "old.", "new.") +
+                " OR " + anyColumnDiffers(WEATHER_VALUE_COLUMNS, "old.", "new.") + " BEGIN " +
+                logChange("old.") +
+                logChange("new.") +
+                "END;");
+    }
+
+    /**
+     * @return a condition that is true if any of the columns differs between the two prefixed
+     * rows.  IS NOT treats two NULLs as equal.
+     */
+    static String anyColumnDiffers(String[] columns, String left, String right) {
+        StringBuilder condition = new StringBuilder("(");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) condition.append(" OR ");
+            condition.append(left).append(columns[i])
+                    .append(" IS NOT ").append(right).append(columns[i]);
+        }
+        return condition.append(')').toString();
+    }
+
+    // Logs a change to the (location, date) of the trigger's old. or new. row
+    private static String logChange(String row) {
+        return "INSERT OR REPLACE INTO " + ChangeEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + ", " + LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                WeatherEntry.COLUMN_DATE + ") VALUES (" +
+                row + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                "(SELECT " + LocationEntry.COLUMN_LOCATION_SETTING + " FROM " +
+                LocationEntry.TABLE_NAME + " WHERE " + LocationEntry._ID + " = " +
+                row + WeatherEntry.COLUMN_LOC_KEY + "), " +
+                row + WeatherEntry.COLUMN_DATE + "); ";
+    }
+
+    private static String prefixed(String prefix, String columns) {
+        return prefix + columns.replace(", ", ", " + prefix);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        // SQLiteOpenHelper already runs this inside a transaction, so a failing step leaves
+        // the database at its old version.
+        if (oldVersion >= OLDEST_MIGRATABLE_VERSION) {
+            migrate(sqLiteDatabase, oldVersion, newVersion);
+            return;
+        }
+
+        // Schemas older than anything we can migrate predate this framework.  The database is
+        // only a cache for online data, so for those we discard the data and start over.
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherLocationEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP VIEW IF EXISTS " + ArchiveEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + ArchiveStorageEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + ArchiveStorageEntry.CONDITION_TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + RollupEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherStagingEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + ChangeEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
+
+    /**
+     * Runs every migration step between the two versions, in order, transforming the existing
+     * data in place.
+     */
+    static void migrate(SQLiteDatabase db, int fromVersion, int toVersion) {
+        for (int version = fromVersion; version < toVersion; version++) {
+            MIGRATIONS[version - OLDEST_MIGRATABLE_VERSION].migrate(db);
+        }
+    }
 }
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phaseshiftlab.sunshineutilitylib.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.phaseshiftlab.sunshineutilitylib.data.WeatherContract.ArchiveEntry;
+import com.phaseshiftlab.sunshineutilitylib.data.WeatherContract.ArchiveStorageEntry;
+import com.phaseshiftlab.sunshineutilitylib.data.WeatherContract.ChangeEntry;
+import com.phaseshiftlab.sunshineutilitylib.data.WeatherContract.LocationEntry;
+import com.phaseshiftlab.sunshineutilitylib.data.WeatherContract.RollupEntry;
+import com.phaseshiftlab.sunshineutilitylib.data.WeatherContract.WeatherEntry;
+
+/**
+ * Retention and compaction pass over the weather database: drops rows past their retention
+ * window, removes locations nothing refers to any more, hands freed pages back to the file
+ * system and refreshes the query planner statistics.
+ *
+ * This is meant to run rarely and off the main thread, e.g. from a job that only fires while
+ * the device is idle and charging.
+ */
+class WeatherDbMaintenance {
+    private static final String LOG_TAG = WeatherDbMaintenance.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // PRAGMA auto_vacuum value for INCREMENTAL
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    // Only today and later are shown, so past days go by default.  A forecast refresh already
+    // drops the refreshed location's past days; this pass is what prunes every location.
+    static final int DEFAULT_WEATHER_RETENTION_DAYS = 0;
+    // Two years of history is plenty for "warmer than last year" comparisons.
+    static final int DEFAULT_ARCHIVE_RETENTION_DAYS = 2 * 365;
+
+    private final SQLiteDatabase mDb;
+    private final String mPreferredLocationSetting;
+
+    /**
+     * @param preferredLocationSetting location that is kept even when nothing refers to it,
+     *                                 since the sync adapter adds it before its weather arrives.
+     *                                 May be null.
+     */
+    WeatherDbMaintenance(SQLiteDatabase db, String preferredLocationSetting) {
+        mDb = db;
+        mPreferredLocationSetting = preferredLocationSetting;
+    }
+
+    /**
+     * Runs the whole pass.
+     *
+     * @param options retention overrides, keyed as described in
+     *                {@link WeatherContract#METHOD_RUN_MAINTENANCE}. May be null.
+     * @return a report with the database size before and after, and how many rows were removed.
+     */
+    Bundle run(Bundle options) {
+        Bundle report = new Bundle();
+        report.putLong(WeatherContract.KEY_DB_SIZE_BEFORE, getDatabaseSize());
+
+        int weatherRetentionDays = getRetentionDays(options, WeatherEntry.TABLE_NAME,
+                DEFAULT_WEATHER_RETENTION_DAYS);
+        int archiveRetentionDays = getRetentionDays(options, ArchiveEntry.TABLE_NAME,
+                DEFAULT_ARCHIVE_RETENTION_DAYS);
+
+        int weatherDeleted;
+        int archiveDeleted;
+        int locationsDeleted;
+        mDb.beginTransaction();
+        try {
+            // Before the weather deletes below log new records for the days they drop
+            deleteChangesOlderThan(weatherRetentionDays);
+            weatherDeleted = deleteWeatherOlderThan(weatherRetentionDays);
+            archiveDeleted = deleteArchiveOlderThan(archiveRetentionDays);
+            locationsDeleted = deleteOrphanedLocations();
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        report.putInt(WeatherContract.getRowsDeletedKey(WeatherEntry.TABLE_NAME), weatherDeleted);
+        report.putInt(WeatherContract.getRowsDeletedKey(ArchiveEntry.TABLE_NAME), archiveDeleted);
+        report.putInt(WeatherContract.getRowsDeletedKey(LocationEntry.TABLE_NAME), locationsDeleted);
+
+        // VACUUM can't run inside a transaction; ANALYZE just reads the committed data.
+        reclaimFreePages();
+        mDb.execSQL("ANALYZE");
+
+        report.putLong(WeatherContract.KEY_DB_SIZE_AFTER, getDatabaseSize());
+        Log.d(LOG_TAG, "Maintenance complete: " + report);
+        return report;
+    }
+
+    private static int getRetentionDays(Bundle options, String tableName, int defaultDays) {
+        return options == null ? defaultDays
+                : options.getInt(WeatherContract.getRetentionDaysKey(tableName), defaultDays);
+    }
+
+    private static long getCutoff(int retentionDays) {
+        return WeatherContract.normalizeDate(System.currentTimeMillis())
+                - retentionDays * DAY_IN_MILLIS;
+    }
+
+    private int deleteWeatherOlderThan(int retentionDays) {
+        String selection = WeatherEntry.COLUMN_DATE + " < ?";
+        String[] selectionArgs = new String[]{Long.toString(getCutoff(retentionDays))};
+        // Past days go to the archive before they are dropped
+        new WeatherArchiver(mDb).archiveFinalizedDays(selection, selectionArgs);
+        return mDb.delete(WeatherEntry.TABLE_NAME, selection, selectionArgs);
+    }
+
+    /**
+     * Drops the change feed's records of deleted days from before the retention window.  These
+     * were logged by an earlier pass at the latest, so followers have had their chance to see
+     * them, and they only concern days nothing shows any more.
+     */
+    private void deleteChangesOlderThan(int retentionDays) {
+        mDb.delete(ChangeEntry.TABLE_NAME,
+                WeatherEntry.COLUMN_DATE + " < ? AND NOT EXISTS (SELECT 1 FROM " +
+                        WeatherEntry.TABLE_NAME + " WHERE " + WeatherEntry.TABLE_NAME + "." +
+                        WeatherEntry.COLUMN_LOC_KEY + " = " + ChangeEntry.TABLE_NAME + "." +
+                        WeatherEntry.COLUMN_LOC_KEY + " AND " + WeatherEntry.TABLE_NAME + "." +
+                        WeatherEntry.COLUMN_DATE + " = " + ChangeEntry.TABLE_NAME + "." +
+                        WeatherEntry.COLUMN_DATE + ")",
+                new String[]{Long.toString(getCutoff(retentionDays))});
+    }
+
+    private int deleteArchiveOlderThan(int retentionDays) {
+        String[] selectionArgs = new String[]{Long.toString(getCutoff(retentionDays))};
+        mDb.delete(RollupEntry.TABLE_NAME, RollupEntry.COLUMN_PERIOD_START + " < ?", selectionArgs);
+        return mDb.delete(ArchiveStorageEntry.TABLE_NAME, WeatherEntry.COLUMN_DATE + " < ?",
+                selectionArgs);
+    }
+
+    private int deleteOrphanedLocations() {
+        String selection = LocationEntry._ID + " NOT IN (SELECT " + WeatherEntry.COLUMN_LOC_KEY +
+                        " FROM " + WeatherEntry.TABLE_NAME + ") AND " +
+                LocationEntry._ID + " NOT IN (SELECT " + WeatherEntry.COLUMN_LOC_KEY +
+                        " FROM " + ArchiveStorageEntry.TABLE_NAME + ")";
+        String[] selectionArgs = null;
+        if (mPreferredLocationSetting != null) {
+            selection += " AND " + LocationEntry.COLUMN_LOCATION_SETTING + " != ?";
+            selectionArgs = new String[]{mPreferredLocationSetting};
+        }
+        int deleted = mDb.delete(LocationEntry.TABLE_NAME, selection, selectionArgs);
+        // Rollups are only meaningful alongside their location
+        mDb.delete(RollupEntry.TABLE_NAME,
+                RollupEntry.COLUMN_LOC_KEY + " NOT IN (SELECT " + LocationEntry._ID +
+                        " FROM " + LocationEntry.TABLE_NAME + ")",
+                null);
+        return deleted;
+    }
+
+    /**
+     * Returns free pages to the file system.  Databases created before incremental vacuum was
+     * switched on in {@link WeatherDbHelper#onConfigure} need one full VACUUM to convert them.
+     */
+    private void reclaimFreePages() {
+        if (DatabaseUtils.longForQuery(mDb, "PRAGMA auto_vacuum", null)
+                != AUTO_VACUUM_INCREMENTAL) {
+            mDb.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            mDb.execSQL("VACUUM");
+            return;
+        }
+        // incremental_vacuum does its work as the result rows are stepped through.
+        Cursor cursor = mDb.rawQuery("PRAGMA incremental_vacuum", null);
+        try {
+            while (cursor.moveToNext()) {
+                // nothing to read
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long getDatabaseSize() {
+        return DatabaseUtils.longForQuery(mDb, "PRAGMA page_count", null)
+                * DatabaseUtils.longForQuery(mDb, "PRAGMA page_size", null);
+    }
+}
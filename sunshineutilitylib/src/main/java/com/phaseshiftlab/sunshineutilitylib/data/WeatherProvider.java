@@ -20,57 +20,161 @@ import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.phaseshiftlab.sunshineutilitylib.Utility;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class WeatherProvider extends ContentProvider {
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
+
+    // How long shutdown() waits for a queued snapshot file publish
+    private static final long SNAPSHOT_FILE_SHUTDOWN_TIMEOUT_SECONDS = 5;
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private WeatherQueryCache mQueryCache;
+    private final WeatherProviderStats mStats = new WeatherProviderStats();
+
+    // Publishes the forecast snapshot files off the writers' threads, one batch at a time.
+    // Each batch reads the database after every write that queued it, so the files never go
+    // backwards.
+    private final ExecutorService mSnapshotFileExecutor = Executors.newSingleThreadExecutor();
+    private final Runnable mPublishSnapshotFiles = new Runnable() {
+        @Override
+        public void run() {
+            publishSnapshotFiles();
+        }
+    };
+
+    // Guards the fields below, which track the snapshot files that are older than the database
+    private final Object mSnapshotFileLock = new Object();
+    private long mSnapshotFileSequence;
+    private final Set<String> mQueuedSnapshotFiles = new HashSet<String>();
+    private boolean mAllSnapshotFilesQueued;
+    private boolean mSnapshotFileBatchQueued;
+    private final Set<String> mPublishingSnapshotFiles = new HashSet<String>();
+    private boolean mPublishingAllSnapshotFiles;
+
+    // Forecast refreshes share the staging table, so only one of them may run at a time.
+    private final Object mRefreshLock = new Object();
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_REFRESH = 103;
     static final int LOCATION = 300;
+    static final int ARCHIVE_WITH_LOCATION = 400;
+    static final int ROLLUP_WITH_LOCATION_AND_PERIOD = 500;
+    static final int ROLLUP_WITH_LOCATION_PERIOD_AND_DATE = 501;
+    static final int CHANGES = 600;
+    static final int CHANGES_WITH_LOCATION = 601;
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sChangesQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
-        
-        //This is an inner join which looks like
+
+        //This used to be an inner join which looked like
         //weather INNER JOIN location ON weather.location_id = location._id
+        //The weather_location read model already carries the location columns on every row,
+        //so this is now a single table scan.  It is aliased as weather so that projections
+        //asking for weather._id keep working.
         sWeatherByLocationSettingQueryBuilder.setTables(
-                WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
-                        WeatherContract.LocationEntry.TABLE_NAME +
-                        " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
-                        "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
-                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
-                        "." + WeatherContract.LocationEntry._ID);
+                WeatherContract.WeatherLocationEntry.TABLE_NAME + " AS " +
+                        WeatherContract.WeatherEntry.TABLE_NAME);
+
+        //weather_changes AS changes LEFT JOIN weather_location AS weather
+        //ON weather.location_id = changes.location_id AND weather.date = changes.date
+        //Deleted days have no weather row left, so every weather column comes back null.
+        sChangesQueryBuilder = new SQLiteQueryBuilder();
+        sChangesQueryBuilder.setTables(
+                WeatherContract.ChangeEntry.TABLE_NAME + " AS changes LEFT JOIN " +
+                        WeatherContract.WeatherLocationEntry.TABLE_NAME + " AS " +
+                        WeatherContract.WeatherEntry.TABLE_NAME + " ON " +
+                        WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                        WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = changes." +
+                        WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " AND " +
+                        WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " = changes." +
+                        WeatherContract.WeatherEntry.COLUMN_DATE);
+        sChangesQueryBuilder.setProjectionMap(buildChangesProjectionMap());
+    }
+
+    // Both tables have location_id, location_setting and date, so every column is qualified
+    private static Map<String, String> buildChangesProjectionMap() {
+        Map<String, String> map = new HashMap<String, String>();
+        String[] changeColumns = {
+                WeatherContract.ChangeEntry.COLUMN_VERSION,
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                WeatherContract.WeatherEntry.COLUMN_DATE};
+        for (String column : changeColumns) {
+            map.put(column, "changes." + column + " AS " + column);
+        }
+        map.put(WeatherContract.ChangeEntry.COLUMN_DELETED,
+                WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID +
+                        " IS NULL AS " + WeatherContract.ChangeEntry.COLUMN_DELETED);
+        String[] weatherColumns = {
+                WeatherContract.WeatherEntry._ID,
+                WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                WeatherContract.WeatherEntry.COLUMN_DEGREES,
+                WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+                WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                WeatherContract.LocationEntry.COLUMN_COORD_LONG};
+        for (String column : weatherColumns) {
+            map.put(column, WeatherContract.WeatherEntry.TABLE_NAME + "." + column + " AS " + column);
+        }
+        return map;
     }
 
-    //location.location_setting = ?
+    //location_setting = ?
     private static final String sLocationSettingSelection =
-            WeatherContract.LocationEntry.TABLE_NAME+
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
-    //location.location_setting = ? AND date >= ?
+    //location_setting = ? AND date >= ?
     private static final String sLocationSettingWithStartDateSelection =
-            WeatherContract.LocationEntry.TABLE_NAME+
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
-    //location.location_setting = ? AND date = ?
+    //AND date > ?
+    private static final String sAfterDateSelection =
+            "AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " > ? ";
+
+    //location_setting = ? AND date = ?
     private static final String sLocationSettingAndDaySelection =
-            WeatherContract.LocationEntry.TABLE_NAME +
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        long afterDate = WeatherContract.WeatherEntry.getAfterDateFromUri(uri);
 
         String[] selectionArgs;
         String selection;
@@ -83,7 +187,206 @@ public class WeatherProvider extends ContentProvider {
             selection = sLocationSettingWithStartDateSelection;
         }
 
+        // Keyset paging: the next page picks up right after the last date the caller has seen.
+        if (afterDate != 0) {
+            selection += sAfterDateSelection;
+            selectionArgs = appendArg(selectionArgs, Long.toString(afterDate));
+        }
+
+        // A page is only well defined in date order, so that is the default whenever one is
+        // asked for.
+        String limit = WeatherContract.WeatherEntry.getLimitFromUri(uri);
+        if (sortOrder == null && (afterDate != 0 || limit != null)) {
+            sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+        }
+
         return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                sortOrder,
+                limit
+        );
+    }
+
+    //the weather rows of staged locations that the staged forecast doesn't have a day for
+    private static final String sReplacedByStagingSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " IN (SELECT " +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " FROM " +
+                    WeatherContract.WeatherStagingEntry.TABLE_NAME + ") AND NOT EXISTS (SELECT 1 FROM " +
+                    WeatherContract.WeatherStagingEntry.TABLE_NAME + " AS staged WHERE staged." +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = " +
+                    WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " AND staged." +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = " +
+                    WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + ")";
+
+    private static final String sStagedColumns =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherContract.WeatherEntry.COLUMN_DATE + ", " +
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherContract.WeatherEntry.COLUMN_DEGREES;
+
+    //Staged days that the weather table already has with exactly the same values.  They are
+    //dropped before the swap, so it only writes the days that changed and the change feed
+    //only logs those.
+    private static final String sUnchangedStagedSelection =
+            "EXISTS (SELECT 1 FROM " + WeatherContract.WeatherEntry.TABLE_NAME + " WHERE " +
+                    WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = " +
+                    WeatherContract.WeatherStagingEntry.TABLE_NAME + "." +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " AND " +
+                    WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = " +
+                    WeatherContract.WeatherStagingEntry.TABLE_NAME + "." +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " AND NOT " +
+                    WeatherDbHelper.anyColumnDiffers(WeatherDbHelper.WEATHER_VALUE_COLUMNS,
+                            WeatherContract.WeatherEntry.TABLE_NAME + ".",
+                            WeatherContract.WeatherStagingEntry.TABLE_NAME + ".") + ")";
+
+    //Staged days that the weather table already has are written back under the _id they
+    //already have, so they keep it; the rest get a new one.  This is the bulk form of
+    //upsertWeather, as the SQLite versions we support have no UPDATE ... FROM.
+    private static final String sUpsertStagedWeather =
+            "INSERT OR REPLACE INTO " + WeatherContract.WeatherEntry.TABLE_NAME + " (" +
+                    WeatherContract.WeatherEntry._ID + ", " + sStagedColumns + ") SELECT " +
+                    WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                    WeatherContract.WeatherEntry._ID + ", staged." +
+                    sStagedColumns.replace(", ", ", staged.") + " FROM " +
+                    WeatherContract.WeatherStagingEntry.TABLE_NAME + " AS staged LEFT JOIN " +
+                    WeatherContract.WeatherEntry.TABLE_NAME + " ON " +
+                    WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = staged." +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " AND " +
+                    WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = staged." +
+                    WeatherContract.WeatherEntry.COLUMN_DATE;
+
+    //location_id = ? AND date = ?
+    private static final String sLocationKeyAndDateSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+
+    //changes.version > ?
+    private static final String sChangesSinceSelection =
+            "changes." + WeatherContract.ChangeEntry.COLUMN_VERSION + " > ? ";
+
+    //AND changes.location_setting = ?
+    private static final String sChangesLocationSettingSelection =
+            "AND changes." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
+
+    // A range scan over the change feed's primary key, so its cost depends on how much has
+    // changed since, not on how much is stored.
+    private Cursor getChanges(Uri uri, int match, String[] projection, String sortOrder) {
+        String selection = sChangesSinceSelection;
+        String[] selectionArgs =
+                new String[]{Long.toString(WeatherContract.ChangeEntry.getSinceFromUri(uri))};
+        if (match == CHANGES_WITH_LOCATION) {
+            selection += sChangesLocationSettingSelection;
+            selectionArgs = appendArg(selectionArgs,
+                    WeatherContract.ChangeEntry.getLocationSettingFromUri(uri));
+        }
+        if (sortOrder == null) {
+            sortOrder = WeatherContract.ChangeEntry.COLUMN_VERSION + " ASC";
+        }
+        return sChangesQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    /**
+     * @return the highest version the change feed has handed out, or 0 if none yet.
+     */
+    private long getChangeVersion() {
+        // Read from sqlite_sequence rather than MAX(version), since the latest entry may
+        // already have been replaced or pruned.
+        return DatabaseUtils.longForQuery(mOpenHelper.getReadableDatabase(),
+                "SELECT IFNULL(MAX(seq), 0) FROM sqlite_sequence WHERE name = ?",
+                new String[]{WeatherContract.ChangeEntry.TABLE_NAME});
+    }
+
+    private static String[] appendArg(String[] args, String arg) {
+        String[] result = new String[args.length + 1];
+        System.arraycopy(args, 0, result, 0, args.length);
+        result[args.length] = arg;
+        return result;
+    }
+
+    //location_id = (SELECT _id FROM location WHERE location_setting = ?)
+    private static final String sLocationKeyBySettingSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = (SELECT " +
+                    WeatherContract.LocationEntry._ID + " FROM " +
+                    WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?) ";
+
+    //location_id = (...) AND date BETWEEN ? AND ?
+    private static final String sArchiveByLocationSettingAndRangeSelection =
+            sLocationKeyBySettingSelection + "AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " BETWEEN ? AND ? ";
+
+    //location_id = (...) AND period = ? AND period_start BETWEEN ? AND ?
+    private static final String sRollupByLocationSettingAndRangeSelection =
+            sLocationKeyBySettingSelection + "AND " +
+                    WeatherContract.RollupEntry.COLUMN_PERIOD + " = ? AND " +
+                    WeatherContract.RollupEntry.COLUMN_PERIOD_START + " BETWEEN ? AND ? ";
+
+    //location_id = (...) AND period = ? AND period_start = ?
+    private static final String sRollupByLocationSettingAndStartSelection =
+            sLocationKeyBySettingSelection + "AND " +
+                    WeatherContract.RollupEntry.COLUMN_PERIOD + " = ? AND " +
+                    WeatherContract.RollupEntry.COLUMN_PERIOD_START + " = ? ";
+
+    // Both of these are lookups on the table's primary key, so their cost depends on the size of
+    // the result, not on how much history has been archived.
+    private Cursor getArchiveByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        return mOpenHelper.getReadableDatabase().query(
+                WeatherContract.ArchiveEntry.TABLE_NAME,
+                projection,
+                sArchiveByLocationSettingAndRangeSelection,
+                new String[]{WeatherContract.ArchiveEntry.getLocationSettingFromUri(uri),
+                        Long.toString(WeatherContract.ArchiveEntry.getStartDateFromUri(uri)),
+                        Long.toString(WeatherContract.ArchiveEntry.getEndDateFromUri(uri))},
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    private Cursor getRollupByLocationSetting(
+            Uri uri, int match, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.RollupEntry.getLocationSettingFromUri(uri);
+        String period = WeatherContract.RollupEntry.getPeriodFromUri(uri);
+
+        String selection;
+        String[] selectionArgs;
+        if (match == ROLLUP_WITH_LOCATION_PERIOD_AND_DATE) {
+            long periodStart = WeatherArchiver.getPeriodStart(period,
+                    WeatherContract.RollupEntry.getDateFromUri(uri));
+            selection = sRollupByLocationSettingAndStartSelection;
+            selectionArgs = new String[]{locationSetting, period, Long.toString(periodStart)};
+        } else {
+            selection = sRollupByLocationSettingAndRangeSelection;
+            selectionArgs = new String[]{locationSetting, period,
+                    Long.toString(WeatherContract.ArchiveEntry.getStartDateFromUri(uri)),
+                    Long.toString(WeatherContract.ArchiveEntry.getEndDateFromUri(uri))};
+        }
+
+        return mOpenHelper.getReadableDatabase().query(
+                WeatherContract.RollupEntry.TABLE_NAME,
                 projection,
                 selection,
                 selectionArgs,
@@ -104,10 +407,61 @@ public class WeatherProvider extends ContentProvider {
                 new String[]{locationSetting, Long.toString(date)},
                 null,
                 null,
-                sortOrder
+                sortOrder,
+                WeatherContract.WeatherEntry.getLimitFromUri(uri)
         );
     }
 
+    /*
+        Serves the joined weather/location queries out of the in-memory cache, falling back to
+        the database on a miss.  The generation is read before touching the database so that a
+        write landing mid-query keeps its stale result out of the cache.
+     */
+    private Cursor getCachedWeatherByLocationSetting(
+            Uri uri, int match, String[] projection, String sortOrder) {
+        String key = WeatherQueryCache.buildKey(uri, projection, sortOrder);
+        Cursor cursor = mQueryCache.get(key);
+        if (cursor != null) {
+            return cursor;
+        }
+        long generation = mQueryCache.getGeneration();
+        Cursor dbCursor = match == WEATHER_WITH_LOCATION_AND_DATE
+                ? getWeatherByLocationSettingAndDate(uri, projection, sortOrder)
+                : getWeatherByLocationSetting(uri, projection, sortOrder);
+        return mQueryCache.put(key, WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                dbCursor, generation);
+    }
+
+    /**
+     * @return the name of a match code, as it appears in the dumped stats.
+     */
+    static String getMatchName(int match) {
+        switch (match) {
+            case WEATHER:
+                return "WEATHER";
+            case WEATHER_WITH_LOCATION:
+                return "WEATHER_WITH_LOCATION";
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                return "WEATHER_WITH_LOCATION_AND_DATE";
+            case WEATHER_REFRESH:
+                return "WEATHER_REFRESH";
+            case LOCATION:
+                return "LOCATION";
+            case ARCHIVE_WITH_LOCATION:
+                return "ARCHIVE_WITH_LOCATION";
+            case ROLLUP_WITH_LOCATION_AND_PERIOD:
+                return "ROLLUP_WITH_LOCATION_AND_PERIOD";
+            case ROLLUP_WITH_LOCATION_PERIOD_AND_DATE:
+                return "ROLLUP_WITH_LOCATION_PERIOD_AND_DATE";
+            case CHANGES:
+                return "CHANGES";
+            case CHANGES_WITH_LOCATION:
+                return "CHANGES_WITH_LOCATION";
+            default:
+                return "NO_MATCH";
+        }
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -129,7 +483,16 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER_REFRESH, WEATHER_REFRESH);
+
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE + "/*", ARCHIVE_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_ROLLUP + "/*/*", ROLLUP_WITH_LOCATION_AND_PERIOD);
+        matcher.addURI(authority, WeatherContract.PATH_ROLLUP + "/*/*/#", ROLLUP_WITH_LOCATION_PERIOD_AND_DATE);
+
+        matcher.addURI(authority, WeatherContract.PATH_CHANGES, CHANGES);
+        matcher.addURI(authority, WeatherContract.PATH_CHANGES + "/*", CHANGES_WITH_LOCATION);
         return matcher;
     }
 
@@ -140,6 +503,9 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        mQueryCache = new WeatherQueryCache(WeatherQueryCache.DEFAULT_MAX_ROWS);
+        // Carry on from a different sequence than whatever an earlier process left on disk
+        mSnapshotFileSequence = System.currentTimeMillis();
         return true;
     }
 
@@ -162,8 +528,19 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_REFRESH:
+                return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case ARCHIVE_WITH_LOCATION:
+                return WeatherContract.ArchiveEntry.CONTENT_TYPE;
+            case ROLLUP_WITH_LOCATION_AND_PERIOD:
+                return WeatherContract.RollupEntry.CONTENT_TYPE;
+            case ROLLUP_WITH_LOCATION_PERIOD_AND_DATE:
+                return WeatherContract.RollupEntry.CONTENT_ITEM_TYPE;
+            case CHANGES:
+            case CHANGES_WITH_LOCATION:
+                return WeatherContract.ChangeEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -174,17 +551,16 @@ public class WeatherProvider extends ContentProvider {
                         String sortOrder) {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
+        long startTime = System.nanoTime();
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        Uri notificationUri = uri;
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
-            {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = getCachedWeatherByLocationSetting(uri, match, projection, sortOrder);
                 break;
             }
             // "weather"
@@ -213,11 +589,34 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "archive/*"
+            case ARCHIVE_WITH_LOCATION: {
+                retCursor = getArchiveByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "rollup/*/*" and "rollup/*/*/#"
+            case ROLLUP_WITH_LOCATION_AND_PERIOD:
+            case ROLLUP_WITH_LOCATION_PERIOD_AND_DATE: {
+                retCursor = getRollupByLocationSetting(uri, match, projection, sortOrder);
+                break;
+            }
+            // "changes" and "changes/*"
+            case CHANGES:
+            case CHANGES_WITH_LOCATION: {
+                retCursor = getChanges(uri, match, projection, sortOrder);
+                // Every weather write notifies the weather URI, which is when the feed moves on
+                notificationUri = WeatherContract.WeatherEntry.CONTENT_URI;
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        retCursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
+        // Counting the rows runs the query now instead of on first access, so the latency
+        // covers the actual SQLite work.
+        mStats.recordRows(WeatherProviderStats.OP_QUERY, getMatchName(match), retCursor.getCount());
+        mStats.recordLatency(WeatherProviderStats.OP_QUERY, getMatchName(match), startTime);
         return retCursor;
     }
 
@@ -226,6 +625,7 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public Uri insert(Uri uri, ContentValues values) {
+        long startTime = System.nanoTime();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
@@ -233,7 +633,9 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER: {
                 normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                long _id = upsertWeather(db, WeatherContract.WeatherEntry.TABLE_NAME, values)
+                        ? getWeatherId(db, values) : -1;
+                scheduleSnapshotFiles(invalidateCacheForWeather(db, values));
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
@@ -242,6 +644,7 @@ public class WeatherProvider extends ContentProvider {
             }
             case LOCATION: {
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                mQueryCache.invalidateAll();
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
@@ -252,35 +655,243 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         getContext().getContentResolver().notifyChange(uri, null);
+        mStats.recordLatency(WeatherProviderStats.OP_INSERT, getMatchName(match), startTime);
         return returnUri;
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        long startTime = System.nanoTime();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
+        long transactionStartTime;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
             case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                // Days that are over get archived on their way out
+                int rowsArchived;
+                transactionStartTime = System.nanoTime();
+                db.beginTransaction();
+                try {
+                    rowsArchived = new WeatherArchiver(db).archiveFinalizedDays(selection, selectionArgs);
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                    mStats.recordTransaction(WeatherProviderStats.OP_DELETE, getMatchName(match),
+                            transactionStartTime);
+                }
+                if (rowsArchived != 0) {
+                    getContext().getContentResolver().notifyChange(
+                            WeatherContract.ArchiveEntry.CONTENT_URI, null);
+                    getContext().getContentResolver().notifyChange(
+                            WeatherContract.RollupEntry.CONTENT_URI, null);
+                }
                 break;
             case LOCATION:
-                rowsDeleted = db.delete(
-                        WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                // A location's history goes with it
+                transactionStartTime = System.nanoTime();
+                db.beginTransaction();
+                try {
+                    rowsDeleted = db.delete(
+                            WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                    if (rowsDeleted != 0) {
+                        deleteHistoryOfMissingLocations(db);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                    mStats.recordTransaction(WeatherProviderStats.OP_DELETE, getMatchName(match),
+                            transactionStartTime);
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
+            mQueryCache.invalidateAll();
+            scheduleSnapshotFiles(null);
             getContext().getContentResolver().notifyChange(uri, null);
         }
+        mStats.recordRows(WeatherProviderStats.OP_DELETE, getMatchName(match), rowsDeleted);
+        mStats.recordLatency(WeatherProviderStats.OP_DELETE, getMatchName(match), startTime);
         return rowsDeleted;
     }
 
+    private void deleteHistoryOfMissingLocations(SQLiteDatabase db) {
+        final String missingLocation = WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
+                " NOT IN (SELECT " + WeatherContract.LocationEntry._ID + " FROM " +
+                WeatherContract.LocationEntry.TABLE_NAME + ")";
+        int rowsDeleted = db.delete(WeatherContract.ArchiveStorageEntry.TABLE_NAME, missingLocation, null)
+                + db.delete(WeatherContract.RollupEntry.TABLE_NAME, missingLocation, null);
+        if (rowsDeleted != 0) {
+            getContext().getContentResolver().notifyChange(
+                    WeatherContract.ArchiveEntry.CONTENT_URI, null);
+            getContext().getContentResolver().notifyChange(
+                    WeatherContract.RollupEntry.CONTENT_URI, null);
+        }
+    }
+
+    /**
+     * Drops the cached query results for every location referenced by the given weather rows.
+     * Falls back to clearing the whole cache if a row doesn't name its location.
+     *
+     * @return the settings of those locations, or null if a row doesn't name its location.
+     */
+    private Set<String> invalidateCacheForWeather(SQLiteDatabase db, ContentValues... values) {
+        Set<Long> locationIds = new HashSet<Long>();
+        for (ContentValues value : values) {
+            Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+            if (locationId == null) {
+                mQueryCache.invalidateAll();
+                return null;
+            }
+            locationIds.add(locationId);
+        }
+        Set<String> locationSettings = new HashSet<String>();
+        for (long locationId : locationIds) {
+            Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                    WeatherContract.LocationEntry._ID + " = ?",
+                    new String[]{Long.toString(locationId)},
+                    null, null, null);
+            try {
+                if (cursor.moveToFirst()) {
+                    String locationSetting = cursor.getString(0);
+                    mQueryCache.invalidateLocation(locationSetting);
+                    locationSettings.add(locationSetting);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return locationSettings;
+    }
+
+    /**
+     * Queues the forecast snapshot files of the given locations to be rewritten on the snapshot
+     * thread.  Called after each committed write to the weather or location tables.  Writes
+     * that arrive before the queued batch starts join it, so a burst of writes rewrites each
+     * file once, and until the files are rewritten readers go to the provider instead.
+     *
+     * @param locationSettings the locations whose weather changed, or null if that isn't known,
+     * in which case every file is rewritten and those of locations that are gone are removed
+     */
+    private void scheduleSnapshotFiles(Set<String> locationSettings) {
+        synchronized (mSnapshotFileLock) {
+            if (locationSettings == null) {
+                mAllSnapshotFilesQueued = true;
+            } else {
+                mQueuedSnapshotFiles.addAll(locationSettings);
+            }
+            updateStaleSnapshotFiles();
+            if (!mSnapshotFileBatchQueued) {
+                mSnapshotFileBatchQueued = true;
+                mSnapshotFileExecutor.execute(mPublishSnapshotFiles);
+            }
+        }
+    }
+
+    /**
+     * Tells readers which files are queued or being rewritten.  Callers hold mSnapshotFileLock.
+     */
+    private void updateStaleSnapshotFiles() {
+        Set<String> stale = new HashSet<String>(mQueuedSnapshotFiles);
+        stale.addAll(mPublishingSnapshotFiles);
+        ForecastSnapshotFile.setStale(mAllSnapshotFilesQueued || mPublishingAllSnapshotFiles,
+                stale);
+    }
+
+    /**
+     * Rewrites the queued snapshot files.  Runs on the snapshot thread.  The rows come through
+     * the query cache, so the same data is warm for the next query or call.
+     */
+    private void publishSnapshotFiles() {
+        long sequence;
+        boolean all;
+        Set<String> locationSettings;
+        synchronized (mSnapshotFileLock) {
+            sequence = ++mSnapshotFileSequence;
+            all = mAllSnapshotFilesQueued;
+            locationSettings = new HashSet<String>(mQueuedSnapshotFiles);
+            mPublishingAllSnapshotFiles = all;
+            mPublishingSnapshotFiles.addAll(locationSettings);
+            mAllSnapshotFilesQueued = false;
+            mQueuedSnapshotFiles.clear();
+            mSnapshotFileBatchQueued = false;
+        }
+
+        File directory = ForecastSnapshotFile.getDirectory(getContext());
+        try {
+            if (all) {
+                locationSettings.clear();
+                Cursor locations = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.LocationEntry.TABLE_NAME,
+                        new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                        null, null, null, null, null);
+                try {
+                    while (locations.moveToNext()) {
+                        locationSettings.add(locations.getString(0));
+                    }
+                } finally {
+                    locations.close();
+                }
+            }
+            for (String locationSetting : locationSettings) {
+                publishSnapshotFile(directory, locationSetting, sequence);
+            }
+            if (all) {
+                ForecastSnapshotFile.deleteAllExcept(directory, locationSettings);
+            }
+        } finally {
+            synchronized (mSnapshotFileLock) {
+                mPublishingAllSnapshotFiles = false;
+                mPublishingSnapshotFiles.clear();
+                updateStaleSnapshotFiles();
+            }
+        }
+    }
+
+    /**
+     * Blocks until the snapshot files queued so far have been rewritten.  For tests.
+     */
+    void awaitSnapshotFiles() throws InterruptedException, ExecutionException {
+        mSnapshotFileExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get();
+    }
+
+    private void publishSnapshotFile(File directory, String locationSetting, long sequence) {
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, System.currentTimeMillis(), ForecastSnapshotFile.MAX_DAYS);
+        Cursor cursor = getCachedWeatherByLocationSetting(uri, WEATHER_WITH_LOCATION,
+                ForecastSnapshot.SNAPSHOT_COLUMNS,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            ForecastSnapshotFile.publish(directory, locationSetting, cursor, sequence);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to publish the snapshot for " + locationSetting, e);
+            // A stale file is worse than none; readers fall back to the provider
+            ForecastSnapshotFile.delete(directory, locationSetting);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Exposes the query cache so that callers (and tests) can inspect its hit, miss and
+     * eviction counters.
+     */
+    WeatherQueryCache getQueryCache() {
+        return mQueryCache;
+    }
+
     private void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
@@ -292,6 +903,7 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        long startTime = System.nanoTime();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
@@ -310,44 +922,239 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
+            mQueryCache.invalidateAll();
+            scheduleSnapshotFiles(null);
             getContext().getContentResolver().notifyChange(uri, null);
         }
+        mStats.recordRows(WeatherProviderStats.OP_UPDATE, getMatchName(match), rowsUpdated);
+        mStats.recordLatency(WeatherProviderStats.OP_UPDATE, getMatchName(match), startTime);
         return rowsUpdated;
     }
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
+        long startTime = System.nanoTime();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
-                    }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
-                }
+                int returnCount = upsertYielding(db, WeatherContract.WeatherEntry.TABLE_NAME,
+                        values, WeatherContract.WeatherEntry.getMaxLockHoldFromUri(uri),
+                        getMatchName(match));
+                scheduleSnapshotFiles(invalidateCacheForWeather(db, values));
                 getContext().getContentResolver().notifyChange(uri, null);
+                mStats.recordRows(WeatherProviderStats.OP_BULK_INSERT, getMatchName(match),
+                        returnCount);
+                mStats.recordLatency(WeatherProviderStats.OP_BULK_INSERT, getMatchName(match),
+                        startTime);
                 return returnCount;
+            case WEATHER_REFRESH:
+                int rowsStaged = refreshWeather(db, values,
+                        WeatherContract.WeatherEntry.getMaxLockHoldFromUri(uri));
+                mStats.recordRows(WeatherProviderStats.OP_BULK_INSERT, getMatchName(match),
+                        rowsStaged);
+                mStats.recordLatency(WeatherProviderStats.OP_BULK_INSERT, getMatchName(match),
+                        startTime);
+                return rowsStaged;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Writes the row for the (location, date) of the values into the table: the existing row is
+     * updated in place, so it keeps its _id, and only a day the table doesn't have yet is
+     * inserted.  Works on the weather and the staging table.
+     *
+     * @return whether a row was written.
+     */
+    private static boolean upsertWeather(SQLiteDatabase db, String table, ContentValues values) {
+        String[] keyArgs = new String[]{
+                values.getAsString(WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                values.getAsString(WeatherContract.WeatherEntry.COLUMN_DATE)};
+        if (db.update(table, values, sLocationKeyAndDateSelection, keyArgs) != 0) {
+            return true;
+        }
+        return db.insert(table, null, values) != -1;
+    }
+
+    private static long getWeatherId(SQLiteDatabase db, ContentValues values) {
+        return DatabaseUtils.longForQuery(db, "SELECT " + WeatherContract.WeatherEntry._ID +
+                        " FROM " + WeatherContract.WeatherEntry.TABLE_NAME +
+                        " WHERE " + sLocationKeyAndDateSelection,
+                new String[]{values.getAsString(WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                        values.getAsString(WeatherContract.WeatherEntry.COLUMN_DATE)});
+    }
+
+    /**
+     * Upserts the rows into the table in one transaction, except that once the write lock has
+     * been held for maxLockHoldMillis, the rows so far are committed and the lock handed over
+     * whenever another thread is waiting for it.  A big ingest therefore never stalls other
+     * writers for much longer than that.  Each stretch the lock was held is recorded in the stats.
+     *
+     * @return the number of rows written.
+     */
+    private int upsertYielding(SQLiteDatabase db, String table, ContentValues[] values,
+                               long maxLockHoldMillis, String matchName) {
+        final long maxLockHoldNanos = maxLockHoldMillis * 1000000;
+        int returnCount = 0;
+        long transactionStartTime = System.nanoTime();
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                normalizeDate(value);
+                if (upsertWeather(db, table, value)) {
+                    returnCount++;
+                }
+                long now = System.nanoTime();
+                if (now - transactionStartTime >= maxLockHoldNanos
+                        && db.yieldIfContendedSafely()) {
+                    // Not counting the time spent waiting for the lock to come back
+                    mStats.recordTransaction(WeatherProviderStats.OP_BULK_INSERT, matchName,
+                            transactionStartTime, now);
+                    transactionStartTime = System.nanoTime();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mStats.recordTransaction(WeatherProviderStats.OP_BULK_INSERT, matchName,
+                    transactionStartTime);
+        }
+        return returnCount;
+    }
+
+    /**
+     * Replaces the forecast of every location in the given rows with exactly those rows.  They
+     * are written to the staging table first, which nothing reads, and then swapped into the
+     * weather table in one short transaction, so readers only ever see a complete forecast and
+     * observers are notified once.  Days dropped by the swap are archived if they are over.
+     *
+     * @return the number of rows staged.
+     */
+    private int refreshWeather(SQLiteDatabase db, ContentValues[] values, long maxLockHoldMillis) {
+        int returnCount;
+        int rowsArchived;
+        synchronized (mRefreshLock) {
+            // Left over if a previous refresh died between staging and swapping
+            db.delete(WeatherContract.WeatherStagingEntry.TABLE_NAME, null, null);
+            // Nothing reads the staging table, so it is fine for it to be committed in pieces
+            returnCount = upsertYielding(db, WeatherContract.WeatherStagingEntry.TABLE_NAME,
+                    values, maxLockHoldMillis, getMatchName(WEATHER_REFRESH));
+
+            long transactionStartTime = System.nanoTime();
+            db.beginTransaction();
+            try {
+                WeatherArchiver archiver = new WeatherArchiver(db);
+                rowsArchived = archiver.archiveFinalizedDays(sReplacedByStagingSelection, null);
+                db.delete(WeatherContract.WeatherEntry.TABLE_NAME, sReplacedByStagingSelection, null);
+                db.delete(WeatherContract.WeatherStagingEntry.TABLE_NAME,
+                        sUnchangedStagedSelection, null);
+                db.execSQL(sUpsertStagedWeather);
+                db.delete(WeatherContract.WeatherStagingEntry.TABLE_NAME, null, null);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                mStats.recordTransaction(WeatherProviderStats.OP_BULK_INSERT,
+                        getMatchName(WEATHER_REFRESH), transactionStartTime);
+            }
+        }
+
+        scheduleSnapshotFiles(invalidateCacheForWeather(db, values));
+        if (rowsArchived != 0) {
+            getContext().getContentResolver().notifyChange(
+                    WeatherContract.ArchiveEntry.CONTENT_URI, null);
+            getContext().getContentResolver().notifyChange(
+                    WeatherContract.RollupEntry.CONTENT_URI, null);
+        }
+        getContext().getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+        return returnCount;
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_GET_FORECAST_SNAPSHOT.equals(method)) {
+            int days = extras == null ? ForecastSnapshot.DEFAULT_DAYS
+                    : extras.getInt(WeatherContract.KEY_DAYS, ForecastSnapshot.DEFAULT_DAYS);
+            Uri uri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                    arg, System.currentTimeMillis(), days);
+            Cursor cursor = getCachedWeatherByLocationSetting(uri, WEATHER_WITH_LOCATION,
+                    ForecastSnapshot.SNAPSHOT_COLUMNS,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+            try {
+                return ForecastSnapshot.toBundle(cursor);
+            } finally {
+                cursor.close();
+            }
+        }
+        if (WeatherContract.METHOD_GET_CHANGE_VERSION.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(WeatherContract.KEY_VERSION, getChangeVersion());
+            return result;
+        }
+        if (WeatherContract.METHOD_RUN_MAINTENANCE.equals(method)) {
+            Bundle report = new WeatherDbMaintenance(mOpenHelper.getWritableDatabase(),
+                    Utility.getPreferredLocation(getContext())).run(extras);
+            if (report.getInt(WeatherContract.getRowsDeletedKey(
+                    WeatherContract.WeatherEntry.TABLE_NAME)) != 0
+                    || report.getInt(WeatherContract.getRowsDeletedKey(
+                    WeatherContract.LocationEntry.TABLE_NAME)) != 0) {
+                mQueryCache.invalidateAll();
+                scheduleSnapshotFiles(null);
+                getContext().getContentResolver().notifyChange(
+                        WeatherContract.WeatherEntry.CONTENT_URI, null);
+                getContext().getContentResolver().notifyChange(
+                        WeatherContract.LocationEntry.CONTENT_URI, null);
+            }
+            return report;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Prints the call histograms, the query cache counters and the database size.  Run
+     * {@code adb shell dumpsys activity provider WeatherProvider} to see it; pass "reset" as an
+     * argument to start the histograms over afterwards.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("WeatherProvider");
+        writer.println("Database size: " +
+                getContext().getDatabasePath(WeatherDbHelper.DATABASE_NAME).length() + " bytes");
+        writer.println("Query cache: " + mQueryCache);
+        writer.println("Calls:");
+        mStats.dump(writer);
+        if (args != null) {
+            for (String arg : args) {
+                if ("reset".equals(arg)) {
+                    mStats.reset();
+                    writer.println("Stats reset");
+                }
+            }
+        }
+    }
+
+    /**
+     * Exposes the call stats for tests.
+     */
+    WeatherProviderStats getStats() {
+        return mStats;
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
     @Override
     @TargetApi(11)
     public void shutdown() {
+        // Let a queued publish finish before the database goes away under it
+        mSnapshotFileExecutor.shutdown();
+        try {
+            mSnapshotFileExecutor.awaitTermination(SNAPSHOT_FILE_SHUTDOWN_TIMEOUT_SECONDS,
+                    TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         mOpenHelper.close();
         super.shutdown();
     }
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phaseshiftlab.sunshineutilitylib.data;
+
+import com.phaseshiftlab.sunshineutilitylib.Histogram;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Histograms of how long {@link WeatherProvider} calls take, kept per operation and URI match
+ * code, so they can be pulled off a device with
+ * {@code adb shell dumpsys activity provider WeatherProvider}.
+ */
+class WeatherProviderStats {
+
+    static final String OP_QUERY = "query";
+    static final String OP_INSERT = "insert";
+    static final String OP_BULK_INSERT = "bulkInsert";
+    static final String OP_UPDATE = "update";
+    static final String OP_DELETE = "delete";
+
+    private static final String METRIC_LATENCY = "latency (us)";
+    private static final String METRIC_ROWS = "rows";
+    private static final String METRIC_TRANSACTION = "transaction held (us)";
+
+    // Sorted so that dump output is stable and groups each operation's metrics together
+    private final Map<String, Histogram> mHistograms = new TreeMap<String, Histogram>();
+
+    /**
+     * Records the time since {@code startNanos} (from {@link System#nanoTime()}) as the latency
+     * of one call.
+     */
+    void recordLatency(String operation, String matchName, long startNanos) {
+        record(operation, matchName, METRIC_LATENCY, (System.nanoTime() - startNanos) / 1000);
+    }
+
+    /**
+     * Records how many rows one call returned or changed.
+     */
+    void recordRows(String operation, String matchName, long rows) {
+        record(operation, matchName, METRIC_ROWS, rows);
+    }
+
+    /**
+     * Records how long a call kept a write transaction open, from {@code startNanos}.
+     */
+    void recordTransaction(String operation, String matchName, long startNanos) {
+        recordTransaction(operation, matchName, startNanos, System.nanoTime());
+    }
+
+    void recordTransaction(String operation, String matchName, long startNanos, long endNanos) {
+        record(operation, matchName, METRIC_TRANSACTION, (endNanos - startNanos) / 1000);
+    }
+
+    private synchronized void record(String operation, String matchName, String metric, long value) {
+        String key = operation + ' ' + matchName + ' ' + metric;
+        Histogram histogram = mHistograms.get(key);
+        if (histogram == null) {
+            histogram = new Histogram();
+            mHistograms.put(key, histogram);
+        }
+        histogram.add(value);
+    }
+
+    synchronized void reset() {
+        mHistograms.clear();
+    }
+
+    synchronized void dump(PrintWriter writer) {
+        if (mHistograms.isEmpty()) {
+            writer.println("  (no calls recorded)");
+            return;
+        }
+        for (Map.Entry<String, Histogram> entry : mHistograms.entrySet()) {
+            writer.print("  ");
+            writer.print(entry.getKey());
+            writer.print(": ");
+            entry.getValue().dump(writer);
+            writer.println();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phaseshiftlab.sunshineutilitylib.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.util.LruCache;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Bounded, read-through cache of the joined weather/location query results served by
+ * {@link WeatherProvider}.  Results are held as immutable row snapshots, so every hit hands out
+ * a fresh in-memory cursor instead of going back to SQLite.
+ *
+ * The cache is sized in rows.  Entries remember the location setting they were built for, so a
+ * write that only touches one location leaves the others alone.
+ */
+class WeatherQueryCache {
+
+    // Default budget: roughly a dozen two-week forecasts with a few projections each.
+    static final int DEFAULT_MAX_ROWS = 512;
+
+    private final LruCache<String, Snapshot> mCache;
+
+    // Bumped on every invalidation.  A query that started before a write must not publish its
+    // (possibly stale) result after the write has invalidated the cache.
+    private long mGeneration;
+
+    WeatherQueryCache(int maxRows) {
+        mCache = new LruCache<String, Snapshot>(maxRows) {
+            @Override
+            protected int sizeOf(String key, Snapshot value) {
+                // An empty result still costs an entry.
+                return Math.max(1, value.rows.length);
+            }
+        };
+    }
+
+    static String buildKey(Uri uri, String[] projection, String sortOrder) {
+        return uri.toString() + '|' + Arrays.toString(projection) + '|' + sortOrder;
+    }
+
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * @return a new cursor over the cached rows for this key, or null on a miss.
+     */
+    Cursor get(String key) {
+        Snapshot snapshot = mCache.get(key);
+        return snapshot == null ? null : snapshot.newCursor();
+    }
+
+    /**
+     * Drains the given cursor into the cache and returns an in-memory copy of it.  The source
+     * cursor is always closed.  The snapshot is dropped if the cache was invalidated after
+     * {@code generation} was read, or if it is too big to be worth keeping.
+     */
+    Cursor put(String key, String locationSetting, Cursor source, long generation) {
+        Snapshot snapshot;
+        try {
+            snapshot = Snapshot.from(locationSetting, source);
+        } finally {
+            source.close();
+        }
+        synchronized (this) {
+            if (generation == mGeneration && snapshot.rows.length <= mCache.maxSize()) {
+                mCache.put(key, snapshot);
+            }
+        }
+        return snapshot.newCursor();
+    }
+
+    /**
+     * Drops every entry built for the given location setting.
+     */
+    synchronized void invalidateLocation(String locationSetting) {
+        mGeneration++;
+        for (Map.Entry<String, Snapshot> entry : mCache.snapshot().entrySet()) {
+            if (entry.getValue().locationSetting.equals(locationSetting)) {
+                mCache.remove(entry.getKey());
+            }
+        }
+    }
+
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mCache.evictAll();
+    }
+
+    int hitCount() {
+        return mCache.hitCount();
+    }
+
+    int missCount() {
+        return mCache.missCount();
+    }
+
+    int evictionCount() {
+        return mCache.evictionCount();
+    }
+
+    int size() {
+        return mCache.size();
+    }
+
+    @Override
+    public String toString() {
+        return "WeatherQueryCache[rows=" + mCache.size() + "/" + mCache.maxSize() +
+                ", hits=" + hitCount() + ", misses=" + missCount() +
+                ", evictions=" + evictionCount() + "]";
+    }
+
+    private static final class Snapshot {
+        final String locationSetting;
+        final String[] columnNames;
+        final Object[][] rows;
+
+        private Snapshot(String locationSetting, String[] columnNames, Object[][] rows) {
+            this.locationSetting = locationSetting;
+            this.columnNames = columnNames;
+            this.rows = rows;
+        }
+
+        static Snapshot from(String locationSetting, Cursor cursor) {
+            String[] columnNames = cursor.getColumnNames();
+            int columnCount = columnNames.length;
+            Object[][] rows = new Object[cursor.getCount()][];
+            int i = 0;
+            while (cursor.moveToNext()) {
+                Object[] row = new Object[columnCount];
+                for (int column = 0; column < columnCount; column++) {
+                    switch (cursor.getType(column)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            row[column] = cursor.getLong(column);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            row[column] = cursor.getDouble(column);
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            row[column] = cursor.getString(column);
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            row[column] = cursor.getBlob(column);
+                            break;
+                        default:
+                            row[column] = null;
+                    }
+                }
+                rows[i++] = row;
+            }
+            return new Snapshot(locationSetting, columnNames, rows);
+        }
+
+        Cursor newCursor() {
+            MatrixCursor cursor = new MatrixCursor(columnNames, rows.length);
+            for (Object[] row : rows) {
+                cursor.addRow(row);
+            }
+            return cursor;
+        }
+    }
+}
@@ -50,9 +50,11 @@ import com.google.android.gms.wearable.DataItem;
 import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.Wearable;
+import com.phaseshiftlab.sunshineutilitylib.JulianDays;
 import com.phaseshiftlab.sunshineutilitylib.Utility;
 
 import java.lang.ref.WeakReference;
+import java.util.Locale;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
@@ -119,11 +121,19 @@ public class MyWatchFace extends CanvasWatchFaceService {
         Paint dateTextPaint;
         boolean isAmbient;
         Time localTime;
+        // The date line only changes once a day or with the locale, so it is formatted and
+        // measured then and reused by every frame in between.
+        int dateTextJulianDay = -1;
+        Locale dateTextLocale;
+        String dateText;
+        final Rect dateTextBounds = new Rect();
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
                 localTime.clear(intent.getStringExtra("time-zone"));
                 localTime.setToNow();
+                JulianDays.onTimeZoneChanged();
+                dateTextJulianDay = -1;
             }
         };
         private Integer minTemp;
@@ -192,6 +202,8 @@ public class MyWatchFace extends CanvasWatchFaceService {
                 // Update time zone in case it changed while we weren't visible.
                 localTime.clear(TimeZone.getDefault().getID());
                 localTime.setToNow();
+                JulianDays.onTimeZoneChanged();
+                dateTextJulianDay = -1;
             } else {
                 unregisterReceiver();
                 if (googleApiClient != null && googleApiClient.isConnected()) {
@@ -302,13 +314,17 @@ public class MyWatchFace extends CanvasWatchFaceService {
                 canvas.drawRect(0, 0, bounds.width(), bounds.height(), backgroundPaint);
             }
 
-            localTime.setToNow();
-
-            String dateText = localTime.format("EEE, MMM dd yyyy").toUpperCase();
-            Rect tempRect = new Rect();
-            dateTextPaint.getTextBounds(dateText, 0, dateText.length(), tempRect);
-            Float dateStartX = (float) (bounds.centerX() - (tempRect.width() / 2));
-            Float dateStartY = (float) (bounds.centerY() - tempRect.height() + 10);
+            int julianDay = JulianDays.getCurrentJulianDay();
+            Locale locale = Locale.getDefault();
+            if (julianDay != dateTextJulianDay || !locale.equals(dateTextLocale)) {
+                localTime.setToNow();
+                dateText = localTime.format("EEE, MMM dd yyyy").toUpperCase();
+                dateTextPaint.getTextBounds(dateText, 0, dateText.length(), dateTextBounds);
+                dateTextJulianDay = julianDay;
+                dateTextLocale = locale;
+            }
+            float dateStartX = bounds.centerX() - (dateTextBounds.width() / 2);
+            float dateStartY = bounds.centerY() - dateTextBounds.height() + 10;
             canvas.drawText(dateText, // Text to display
                     dateStartX,
                     dateStartY,